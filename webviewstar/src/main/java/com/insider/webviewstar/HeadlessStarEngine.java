@@ -0,0 +1,189 @@
+package com.insider.webviewstar;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Random;
+
+/**
+ * The Java implementation of the star functions inside "src/main/js/starfunctions.js",
+ * which applies the star calls directly to the {@link StarModel} when there is no live
+ * WebView to run them, or when the stars are shared by multiple WebViews, see
+ * {@link WebViewFunctionManager} and {@link StarStateHub}.
+ *
+ * The engine follows the rules of the script:
+ *
+ * 1) A small star is one of {@link StarCodec#SMALL_COLORS}, a big star is one of
+ * {@link StarCodec#BIG_COLORS}, and either is "Bright" or "Not so much" at random,
+ * 2) The stars are added until the capacity of the sky is reached,
+ * 3) A transaction is applied as a single change, and rejected as a whole with the
+ * "reject" policy, see {@link StarTransaction},
+ * 4) Every call returns the same JSON result as the script, see {@link StarResult}.
+ *
+ * Every change is saved by {@link StarsPersister} like a change of the WebView, so
+ * once the WebView comes up, it is restored from the model together with the stars
+ * that were added by the engine.
+ */
+class HeadlessStarEngine {
+
+    private static final String TAG = HeadlessStarEngine.class.getSimpleName();
+
+    private final Object mLock = new Object();
+    private final Random random = new Random();
+
+    private final Context context;
+    private final int maxStarCount;
+
+    HeadlessStarEngine(@NonNull Context context, int maxStarCount) {
+        this.context = context.getApplicationContext();
+        this.maxStarCount = maxStarCount;
+    }
+
+    /**
+     * Calls the star function with the given argument.
+     *
+     * @param functionName the name of the function inside the star script.
+     * @param argument the string argument of the function, if any.
+     * @return the JSON representation of the result, or "null" if the function
+     * does not return a result, or it is not known.
+     */
+    @NonNull
+    String call(@NonNull String functionName, @Nullable String argument) {
+        synchronized (mLock) {
+            try {
+                switch (functionName) {
+                    case PendingCommandBuffer.ADD_SMALL_STAR:
+                        return addStars(false, 1);
+                    case PendingCommandBuffer.ADD_BIG_STAR:
+                        return addStars(true, 1);
+                    case PendingCommandBuffer.ADD_SMALL_STARS:
+                        return addStars(false, Integer.parseInt(argument));
+                    case PendingCommandBuffer.ADD_BIG_STARS:
+                        return addStars(true, Integer.parseInt(argument));
+                    case PendingCommandBuffer.APPLY_OPERATIONS:
+                        return applyOperations(argument);
+                    case PendingCommandBuffer.RESET:
+                        return reset();
+                    default:
+                        // The restore functions, such as "initializeStars", have nothing
+                        // to do, since the model is the source of the stars.
+                        return "null";
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "call: Failed to call " + functionName + "(" + argument + ")", e);
+                return "null";
+            }
+        }
+    }
+
+    private String addStars(boolean isBig, int count) {
+        final StarModel model = StarModel.getInstance(context);
+        final int currentCount = model.getCount();
+        final int added = Math.max(0, Math.min(count, maxStarCount - currentCount));
+        if (added > 0)
+            applyChange(model, currentCount, createStars(isBig, added));
+        if (added < count)
+            Log.i(TAG, "addStars: Sky is full.");
+        return starResult(added, count, currentCount + added, false);
+    }
+
+    /**
+     * Applies the operations of a transaction, such as "reject|R,S3,B2",
+     * see {@link StarTransaction#toArgument()}.
+     */
+    private String applyOperations(@NonNull String argument) {
+        final int separator = argument.indexOf('|');
+        final boolean isReject = "reject".equals(argument.substring(0, separator));
+        final String[] operations = argument.substring(separator + 1).split(",");
+
+        final StarModel model = StarModel.getInstance(context);
+        final int currentCount = model.getCount();
+        long finalCount = currentCount;
+        long requested = 0;
+        int resetIndex = -1;
+        for (int i = 0; i < operations.length; i++) {
+            if (operations[i].isEmpty())
+                continue;
+            if (operations[i].charAt(0) == 'R') {
+                // The operations before the reset are neither applied nor counted.
+                finalCount = 0;
+                requested = 0;
+                resetIndex = i;
+            } else {
+                final int count = Integer.parseInt(operations[i].substring(1));
+                finalCount += count;
+                requested += count;
+            }
+        }
+        final int requestedCount = (int) Math.min(requested, Integer.MAX_VALUE);
+        if (requested > 0 && finalCount > maxStarCount && isReject) {
+            Log.i(TAG, "applyOperations: Sky is full.");
+            return starResult(0, requestedCount, currentCount, true);
+        }
+
+        // The stars before the reset are never visible, so only the
+        // operations after it are applied, starting from an empty sky.
+        final int offset = resetIndex >= 0 ? 0 : currentCount;
+        final int available = Math.max(0, maxStarCount - offset);
+        final int addedCount = (int) Math.min(available, Math.max(0, finalCount - offset));
+        final byte[] added = new byte[addedCount];
+        int position = 0;
+        for (int i = resetIndex + 1; i < operations.length && position < addedCount; i++) {
+            if (operations[i].isEmpty())
+                continue;
+            final int count = Math.min(addedCount - position, Integer.parseInt(operations[i].substring(1)));
+            final boolean isBig = operations[i].charAt(0) == 'B';
+            for (int j = 0; j < count; j++)
+                added[position++] = createStar(isBig);
+        }
+        if (resetIndex >= 0 || addedCount > 0)
+            applyChange(model, offset, added);
+        if (addedCount < requested)
+            Log.i(TAG, "applyOperations: Sky is full.");
+        return starResult(addedCount, requestedCount, offset + addedCount, false);
+    }
+
+    private String reset() {
+        final StarModel model = StarModel.getInstance(context);
+        model.reset();
+        StarsPersister.getInstance(context).onModelChanged(true);
+        return starResult(0, 0, 0, false);
+    }
+
+    private void applyChange(StarModel model, int offset, byte[] added) {
+        model.applyChange(offset, added);
+        StarsPersister.getInstance(context).onModelChanged(model.getCount() == 0);
+    }
+
+    private byte[] createStars(boolean isBig, int count) {
+        final byte[] stars = new byte[count];
+        for (int i = 0; i < count; i++)
+            stars[i] = createStar(isBig);
+        return stars;
+    }
+
+    /**
+     * Creates a star with a random color of its size, and a random brightness,
+     * like "StarCreator.createBigStarCode" and "StarCreator.createSmallStarCode".
+     */
+    private byte createStar(boolean isBig) {
+        // A single random value picks both the color and the brightness.
+        final int value = random.nextInt(StarCodec.SMALL_COLORS.length * 2);
+        final int colorIndex = value >> 1;
+        final int brightnessBit = (value & 1) == 0 ? 0 : StarCodec.BRIGHTNESS_MASK;
+        return (byte) ((isBig ? StarCodec.SIZE_MASK : 0) | colorIndex << StarCodec.COLOR_SHIFT | brightnessBit);
+    }
+
+    /**
+     * Returns the same result as the "starResult" function of the script.
+     */
+    private static String starResult(int added, int requested, int count, boolean rejected) {
+        return "{\"added\":" + added
+                + ",\"requested\":" + requested
+                + ",\"count\":" + count
+                + ",\"rejected\":" + rejected + "}";
+    }
+}
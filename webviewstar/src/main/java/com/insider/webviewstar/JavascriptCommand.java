@@ -0,0 +1,74 @@
+package com.insider.webviewstar;
+
+import android.webkit.ValueCallback;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single call to one of the functions inside the star script, which
+ * is sent to the WebView by {@link WebViewFunctionManager}.
+ *
+ * The callback, if there is one, receives the JSON representation
+ * of the value that the function returned, in the same format as
+ * {@link android.webkit.WebView#evaluateJavascript(String, ValueCallback)}.
+ * It receives a single result, even if the command was failed before
+ * the WebView delivered its result.
+ */
+class JavascriptCommand {
+
+    /**
+     * The result that is delivered if the command was replaced by a later command
+     * before it was sent, see {@link PendingCommandBuffer}.
+     */
+    static final String RESULT_SUPERSEDED = "{\"error\":\"superseded\"}";
+
+    /**
+     * The result that is delivered if the command could not be sent,
+     * or its result could not be received, since the SDK was destroyed.
+     */
+    static final String RESULT_DESTROYED = "{\"error\":\"destroyed\"}";
+
+    @NonNull
+    final String functionName;
+
+    @Nullable
+    final String argument;
+
+    @Nullable
+    final ValueCallback<String> callback;
+
+    private final AtomicBoolean isDelivered = new AtomicBoolean(false);
+
+    JavascriptCommand(@NonNull String functionName, @Nullable String argument,
+                      @Nullable ValueCallback<String> callback) {
+        this.functionName = functionName;
+        this.argument = argument;
+        this.callback = callback;
+    }
+
+    /**
+     * Returns the expression that calls the function, without
+     * the trailing semicolon.
+     */
+    @NonNull
+    String toExpression() {
+        if (argument == null)
+            return functionName + "()";
+        else
+            return functionName + "('" + argument + "')";
+    }
+
+    /**
+     * Delivers the result of the function to the callback, if there is one,
+     * and if no result was delivered yet.
+     *
+     * @param result the JSON representation of the result.
+     */
+    void deliverResult(@Nullable String result) {
+        if (isDelivered.compareAndSet(false, true) && callback != null)
+            callback.onReceiveValue(result);
+    }
+}
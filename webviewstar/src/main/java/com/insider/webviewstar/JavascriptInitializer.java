@@ -1,24 +1,30 @@
 package com.insider.webviewstar;
 
-import android.content.Context;
+import android.net.Uri;
 import android.util.Log;
 import android.webkit.WebView;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.webkit.ScriptHandler;
+import androidx.webkit.WebViewCompat;
+import androidx.webkit.WebViewFeature;
+
+import java.util.Collections;
 
 /**
- * The root JS initializer that reads the "assets/starfunctions.js"
- * and injects it into the WebView via the static
- * {@link #initialize(WebView, WebViewFunctionManager)} method,
- * which will be triggered if the WebView successfully loads the
- * URL provided to it.
+ * The root JS initializer that injects the star script into the WebView.
+ * The script is embedded at build time from "src/main/js/starfunctions.js",
+ * and provided by the process-wide {@link StarScriptCache}.
+ *
+ * If the WebView supports document start scripts, the script is registered
+ * via {@link #injectAtDocumentStart(WebView, String)} before the URL is loaded,
+ * so that the star functions exist from the first frame of the page. The script
+ * then notifies {@link StarsManager#onScriptReady(String)} itself.
  *
- * Reads the JS content via a {@link BufferedReader} using
- * try-with-resources and a StringBuilder so that the most
- * efficient way will be used. The {@link #initialize(WebView, WebViewFunctionManager)}
- * method will be called on a worker thread.
+ * Otherwise, the static {@link #initialize(WebViewFunctionManager)} method
+ * injects the script, which will be triggered if the WebView successfully loads the
+ * URL provided to it.
  */
 class JavascriptInitializer {
 
@@ -28,31 +34,35 @@ class JavascriptInitializer {
      * Initializes the javascript methods for the web view. Called
      * when the WebView is attached to window and a URL is loaded.
      *
-     * This method is called on background thread to allow
-     * direct access to javascript assets to be able to read
-     * via input streams.
+     * @param functionManager the function manager of the WebView to inject JS to.
+     */
+    static void initialize(WebViewFunctionManager functionManager) {
+        functionManager.initialize(StarScriptCache.getPageLoadScript());
+    }
+
+    /**
+     * Registers the star script as a document start script for the origin of
+     * the given URL, if the WebView supports it. Must be called before the URL
+     * is loaded.
      *
-     * @param webView the webView to inject JS to.
-     * @param functionManager the function manager that this WebView is tied to.
+     * @param webView the webView to register the script to.
+     * @param url the URL that will be loaded into the WebView.
+     * @return the handler that can be used to remove the script, or null if
+     * the WebView does not support document start scripts.
      */
-    static void initialize(WebView webView, WebViewFunctionManager functionManager) {
-        final Context context = webView.getContext();
-        String result;
-        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(context.getAssets().open("starfunctions.js")))) {
-            final StringBuilder builder = new StringBuilder();
-            String line;
-            boolean first = true;
-            while ((line = reader.readLine()) != null) {
-                if (!first)
-                    builder.append('\n');
-                builder.append(line);
-                first = false;
-            }
-            result = builder.toString();
-        } catch (IOException e) {
-            Log.e(TAG, "initialize: Failed to read asset.", e);
-            return;
+    @Nullable
+    static ScriptHandler injectAtDocumentStart(@NonNull WebView webView, @NonNull String url) {
+        if (!WebViewFeature.isFeatureSupported(WebViewFeature.DOCUMENT_START_SCRIPT))
+            return null;
+
+        final Uri uri = Uri.parse(url);
+        final String origin = uri.getScheme() + "://" + uri.getAuthority();
+        try {
+            return WebViewCompat.addDocumentStartJavaScript(webView,
+                    StarScriptCache.getDocumentStartScript(), Collections.singleton(origin));
+        } catch (Exception e) {
+            Log.e(TAG, "injectAtDocumentStart: Failed to add document start script.", e);
+            return null;
         }
-        functionManager.initialize(result);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,210 @@
+package com.insider.webviewstar;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The {@link StarStore} that keeps the stars as fixed-size records inside a
+ * memory-mapped file.
+ *
+ * The file starts with a header of {@link #HEADER_SIZE} bytes, which contains the magic,
+ * the format version and the star count, followed by one {@link #RECORD_SIZE} byte record
+ * per star. Appending a star writes only its record and the count, and the count is read
+ * from memory. Once the file is full, it is grown to twice its capacity and mapped again.
+ *
+ * The stars are never lost by a crash:
+ * 1) Appended records are forced to the disk before the count, so the count never covers
+ *    a record that was not written.
+ * 2) Replacing the stars with ones that do not extend them writes a complete new file
+ *    next to the store, which is renamed over the store once it is forced. Its records
+ *    are also written before its count, so either the old or the new stars are read.
+ */
+class MappedStarStore implements StarStore {
+
+    static final String FILE_NAME = "stars.mapped";
+    static final String TEMP_FILE_NAME = "stars.mapped.tmp";
+
+    private static final int MAGIC = 0x53544D50; // "STMP"
+    private static final byte FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int VERSION_OFFSET = 4;
+    private static final int COUNT_OFFSET = 8;
+    private static final int RECORD_SIZE = 1;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final File directory;
+    private final File storeFile;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int count;
+
+    /**
+     * Opens the store inside the directory, creating the file if it does not exist.
+     *
+     * @param directory the directory of the file, which is created if it does not exist.
+     * @throws IOException if the file could not be opened, or it is not valid.
+     */
+    MappedStarStore(@NonNull File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Failed to create directory: " + directory);
+        this.directory = directory;
+        storeFile = new File(directory, FILE_NAME);
+        open();
+    }
+
+    @Override
+    public synchronized int getCount() {
+        return count;
+    }
+
+    @NonNull
+    @Override
+    public synchronized byte[] getStars() {
+        final byte[] stars = new byte[count];
+        records(count).get(stars);
+        return stars;
+    }
+
+    @Override
+    public synchronized void append(@NonNull byte[] stars, int offset, int length) throws IOException {
+        if (length == 0)
+            return;
+        ensureCapacity(count + length);
+        writeRecords(count, stars, offset, length);
+        writeCount(count + length);
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        if (count != 0)
+            writeCount(0);
+    }
+
+    @Override
+    public synchronized void replace(@NonNull byte[] stars) throws IOException {
+        if (stars.length >= count && records(count).equals(ByteBuffer.wrap(stars, 0, count))) {
+            // Only the new stars are written, as the existing ones are kept.
+            append(stars, count, stars.length - count);
+            return;
+        }
+        final File tempFile = new File(directory, TEMP_FILE_NAME);
+        writeFile(tempFile, stars);
+        close();
+        if (!tempFile.renameTo(storeFile)) {
+            open();
+            throw new IOException("Failed to rename " + tempFile + " to " + storeFile);
+        }
+        open();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            channel.close();
+            file.close();
+        } catch (IOException ignored) {
+            // Nothing to do, as the records are already forced.
+        }
+    }
+
+    /**
+     * Opens and maps the store file, and reads its star count.
+     */
+    private void open() throws IOException {
+        file = new RandomAccessFile(storeFile, "rw");
+        channel = file.getChannel();
+        count = 0;
+
+        try {
+            final long length = file.length();
+            if (length < HEADER_SIZE) {
+                map(INITIAL_CAPACITY);
+                buffer.putInt(0, MAGIC);
+                buffer.put(VERSION_OFFSET, FORMAT_VERSION);
+                buffer.putInt(COUNT_OFFSET, 0);
+                buffer.force();
+            } else {
+                map((int) ((length - HEADER_SIZE) / RECORD_SIZE));
+                if (buffer.getInt(0) != MAGIC || buffer.get(VERSION_OFFSET) != FORMAT_VERSION)
+                    throw new IOException("Invalid header.");
+                count = buffer.getInt(COUNT_OFFSET);
+                if (count < 0 || count > capacity)
+                    throw new IOException("Invalid star count: " + count);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a complete store file with the stars, and forces it to the disk.
+     */
+    private static void writeFile(File target, byte[] stars) throws IOException {
+        int newCapacity = INITIAL_CAPACITY;
+        while (newCapacity < stars.length)
+            newCapacity *= 2;
+        try (RandomAccessFile output = new RandomAccessFile(target, "rw")) {
+            output.setLength(0);
+            final MappedByteBuffer mapped = output.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                    0, HEADER_SIZE + (long) newCapacity * RECORD_SIZE);
+            mapped.putInt(0, MAGIC);
+            mapped.put(VERSION_OFFSET, FORMAT_VERSION);
+            mapped.position(HEADER_SIZE);
+            mapped.put(stars);
+            mapped.force();
+            mapped.putInt(COUNT_OFFSET, stars.length);
+            mapped.force();
+        }
+    }
+
+    /**
+     * Returns a view of the first records of the mapping.
+     */
+    private ByteBuffer records(int length) {
+        final ByteBuffer view = buffer.duplicate();
+        view.limit(HEADER_SIZE + length * RECORD_SIZE);
+        view.position(HEADER_SIZE);
+        return view.slice();
+    }
+
+    private void map(int newCapacity) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_SIZE + (long) newCapacity * RECORD_SIZE);
+        capacity = newCapacity;
+    }
+
+    private void ensureCapacity(int requiredCapacity) throws IOException {
+        if (requiredCapacity <= capacity)
+            return;
+        int newCapacity = Math.max(capacity, INITIAL_CAPACITY);
+        while (newCapacity < requiredCapacity)
+            newCapacity *= 2;
+        map(newCapacity);
+    }
+
+    private void writeRecords(int index, byte[] stars, int offset, int length) {
+        if (length == 0)
+            return;
+        final ByteBuffer records = buffer.duplicate();
+        records.position(HEADER_SIZE + index * RECORD_SIZE);
+        records.put(stars, offset, length);
+        buffer.force();
+    }
+
+    private void writeCount(int newCount) {
+        buffer.putInt(COUNT_OFFSET, newCount);
+        buffer.force();
+        count = newCount;
+    }
+}
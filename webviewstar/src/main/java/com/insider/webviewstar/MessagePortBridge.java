@@ -0,0 +1,292 @@
+package com.insider.webviewstar;
+
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+import android.webkit.ValueCallback;
+import android.webkit.WebMessage;
+import android.webkit.WebMessagePort;
+import android.webkit.WebView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The transport that sends the star function calls to the star script, and receives
+ * the star state changes from it, through a WebMessage channel instead of evaluating
+ * script source and calling the JavascriptInterface.
+ *
+ * After {@link #connect(String)}, one port of the channel is kept here, and the other
+ * one is posted to the page, where the star script listens for the
+ * {@link #CONNECT_MESSAGE}. The script only accepts the message that is posted by the
+ * app, rather than by the page or its frames, and acknowledges it on the port once it
+ * listens to it. Until then, the calls are held here, and they are sent in order once
+ * the acknowledgement arrives, or evaluated by the {@link Fallback} if it does not
+ * arrive within {@link #READY_TIMEOUT_MILLIS}, after which the calls are never sent
+ * through the channel. The port is still kept open, since the script may have
+ * received it, and send the star state changes through it.
+ *
+ * The messages are plain strings that are never compiled:
+ *
+ * 1) Java to JS: records separated by {@link #RECORD_SEPARATOR}, each of which is
+ * "id, function name, argument" separated by {@link #UNIT_SEPARATOR}. The id is empty
+ * if the result is not needed, and the argument is optional.
+ * 2) JS to Java: "a, version" once the script listens to the port, "r, id, JSON result"
+ * for the results of the calls, and "s, stars" for the star state changes, separated
+ * by {@link #UNIT_SEPARATOR}.
+ *
+ * Both separators are control characters that never exist inside JSON or base64 text,
+ * so the arguments are sent as they are, without escaping.
+ *
+ * All the methods, as well as the port callbacks, run on the main thread.
+ */
+@RequiresApi(Build.VERSION_CODES.M)
+class MessagePortBridge {
+
+    private static final String TAG = MessagePortBridge.class.getSimpleName();
+
+    static final String CONNECT_MESSAGE = "starsBridge";
+    static final char RECORD_SEPARATOR = '\u001E';
+    static final char UNIT_SEPARATOR = '\u001F';
+
+    /**
+     * How long the script is given to acknowledge the port, before the
+     * held calls are evaluated instead.
+     */
+    static final long READY_TIMEOUT_MILLIS = 1000;
+
+    private static final String TYPE_READY = "a";
+    private static final String TYPE_RESULT = "r";
+    private static final String TYPE_STATE = "s";
+
+    /**
+     * The listener that receives the star state changes sent through the port.
+     */
+    interface StateListener {
+
+        /**
+         * Called on the main thread when the star array changes inside the script.
+         *
+         * @param stars the stars, in the same format as {@link StarsManager#onStarsChanged(String)}.
+         */
+        void onStarsChanged(String stars);
+    }
+
+    /**
+     * The path that the calls are sent through if the script does not
+     * acknowledge the port.
+     */
+    interface Fallback {
+
+        /**
+         * Called on the main thread with the calls that were held while
+         * waiting for the acknowledgement, in the order they were sent.
+         *
+         * @param commands the calls, which should be evaluated as script source.
+         */
+        void evaluate(@NonNull List<JavascriptCommand> commands);
+    }
+
+    private final WebView webView;
+    private final StateListener stateListener;
+    private final Fallback fallback;
+    private final Map<Integer, ValueCallback<String>> pendingResults = new HashMap<>();
+    private final Runnable readyTimeoutCallback = this::onReadyTimeout;
+
+    /**
+     * The calls that were sent before the script acknowledged the port.
+     */
+    private final List<JavascriptCommand> unsentCommands = new ArrayList<>();
+
+    @Nullable
+    private WebMessagePort port;
+    private boolean isReady = false;
+
+    /**
+     * Whether the acknowledgement did not arrive in time, so the calls are evaluated.
+     */
+    private boolean isFallback = false;
+
+    private int nextId = 0;
+
+    MessagePortBridge(@NonNull WebView webView, @NonNull StateListener stateListener,
+                      @NonNull Fallback fallback) {
+        this.webView = webView;
+        this.stateListener = stateListener;
+        this.fallback = fallback;
+    }
+
+    /**
+     * Creates a new channel and posts one of its ports to the page, which must already
+     * contain the star script. The previous channel, if any, is closed, and the calls
+     * that were held for it receive "null", as the page that they were sent to is gone.
+     *
+     * @param url the URL of the page, which is used as the target origin.
+     * @return if the channel was created.
+     */
+    boolean connect(@NonNull String url) {
+        // The page was loaded again, so the results of the previous page never arrive.
+        for (JavascriptCommand command : closePort("null"))
+            command.deliverResult("null");
+        try {
+            final WebMessagePort[] ports = webView.createWebMessageChannel();
+            ports[0].setWebMessageCallback(new WebMessagePort.WebMessageCallback() {
+                @Override
+                public void onMessage(WebMessagePort messagePort, WebMessage message) {
+                    // A message of a closed channel may already be posted.
+                    if (messagePort == port)
+                        onMessageReceived(message.getData());
+                }
+            }, StarExecutors.getMainHandler());
+
+            final Uri uri = Uri.parse(url);
+            webView.postWebMessage(new WebMessage(CONNECT_MESSAGE, new WebMessagePort[]{ports[1]}),
+                    Uri.parse(uri.getScheme() + "://" + uri.getAuthority()));
+            port = ports[0];
+            StarExecutors.getMainHandler().postDelayed(readyTimeoutCallback, READY_TIMEOUT_MILLIS);
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "connect: Failed to create the message channel.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Determines whether the port is available to send the calls through,
+     * including while it waits for the acknowledgement of the script.
+     */
+    boolean isConnected() {
+        return port != null && !isFallback;
+    }
+
+    /**
+     * Sends the commands to the star script as a single message, or holds them
+     * until the script acknowledges the port.
+     *
+     * @param commands the commands, in the order they should be called.
+     */
+    void send(@NonNull List<JavascriptCommand> commands) {
+        if (!isConnected())
+            return;
+        if (!isReady) {
+            unsentCommands.addAll(commands);
+            return;
+        }
+
+        final StringBuilder message = new StringBuilder();
+        for (JavascriptCommand command : commands) {
+            if (message.length() > 0)
+                message.append(RECORD_SEPARATOR);
+            if (command.callback != null) {
+                final int id = nextId++;
+                pendingResults.put(id, command.callback);
+                message.append(id);
+            }
+            message.append(UNIT_SEPARATOR).append(command.functionName);
+            if (command.argument != null)
+                message.append(UNIT_SEPARATOR).append(command.argument);
+        }
+        port.postMessage(new WebMessage(message.toString()));
+    }
+
+    /**
+     * Closes the port. The calls that are waiting for a result receive
+     * {@link JavascriptCommand#RESULT_DESTROYED}.
+     *
+     * @return the calls that were held while waiting for the acknowledgement,
+     * which were never sent, so they should be applied another way.
+     */
+    @NonNull
+    List<JavascriptCommand> close() {
+        return closePort(JavascriptCommand.RESULT_DESTROYED);
+    }
+
+    /**
+     * Closes the port, delivering the given result to the calls that are
+     * waiting for a result, since they will never receive it.
+     *
+     * @return the calls that were held while waiting for the acknowledgement.
+     */
+    @NonNull
+    private List<JavascriptCommand> closePort(String result) {
+        StarExecutors.getMainHandler().removeCallbacks(readyTimeoutCallback);
+        if (port != null) {
+            port.close();
+            port = null;
+        }
+        isReady = false;
+        isFallback = false;
+        for (ValueCallback<String> callback : pendingResults.values()) {
+            callback.onReceiveValue(result);
+        }
+        pendingResults.clear();
+        final List<JavascriptCommand> commands = new ArrayList<>(unsentCommands);
+        unsentCommands.clear();
+        return commands;
+    }
+
+    /**
+     * Sends the held calls once the script listens to the port.
+     */
+    private void onReady() {
+        if (isReady || isFallback)
+            return;
+        StarExecutors.getMainHandler().removeCallbacks(readyTimeoutCallback);
+        isReady = true;
+        if (!unsentCommands.isEmpty()) {
+            final List<JavascriptCommand> commands = new ArrayList<>(unsentCommands);
+            unsentCommands.clear();
+            send(commands);
+        }
+    }
+
+    /**
+     * Stops sending the calls through the channel, since the script did not
+     * acknowledge it, and evaluates the held calls instead. A late acknowledgement
+     * is ignored, so the calls are never reordered across the two paths.
+     */
+    private void onReadyTimeout() {
+        if (port == null || isReady || isFallback)
+            return;
+        Log.w(TAG, "onReadyTimeout: The script did not acknowledge the message channel.");
+        isFallback = true;
+        final List<JavascriptCommand> commands = new ArrayList<>(unsentCommands);
+        unsentCommands.clear();
+        if (!commands.isEmpty())
+            fallback.evaluate(commands);
+    }
+
+    private void onMessageReceived(@Nullable String data) {
+        if (data == null)
+            return;
+
+        final int typeEnd = data.indexOf(UNIT_SEPARATOR);
+        if (typeEnd < 0)
+            return;
+
+        final String type = data.substring(0, typeEnd);
+        if (TYPE_READY.equals(type)) {
+            onReady();
+        } else if (TYPE_STATE.equals(type)) {
+            stateListener.onStarsChanged(data.substring(typeEnd + 1));
+        } else if (TYPE_RESULT.equals(type)) {
+            final int idEnd = data.indexOf(UNIT_SEPARATOR, typeEnd + 1);
+            if (idEnd < 0)
+                return;
+            try {
+                final int id = Integer.parseInt(data.substring(typeEnd + 1, idEnd));
+                final ValueCallback<String> callback = pendingResults.remove(id);
+                if (callback != null)
+                    callback.onReceiveValue(data.substring(idEnd + 1));
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "onMessageReceived: Invalid result: " + data, e);
+            }
+        }
+    }
+}
@@ -2,10 +2,7 @@ package com.insider.webviewstar;
 
 /**
  * The interface that is used for when the page is successfully loaded
- * to the WebView.
- *
- * No failure method was defined in this interface, as the success
- * side is the only side we're interested in right now.
+ * to the WebView, or when it fails to load.
  */
 interface PageLoadedCallback {
 
@@ -13,4 +10,12 @@ interface PageLoadedCallback {
      * Triggered when WebView correctly loads the URL associated with it.
      */
     void onPageLoaded();
+
+    /**
+     * Triggered on the main thread when WebView fails to load the URL
+     * associated with it, such as when there is no connection.
+     *
+     * @param description the description of the error.
+     */
+    void onPageLoadFailed(String description);
 }
\ No newline at end of file
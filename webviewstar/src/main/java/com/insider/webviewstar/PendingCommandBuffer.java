@@ -0,0 +1,204 @@
+package com.insider.webviewstar;
+
+import android.webkit.ValueCallback;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The buffer that holds the star function calls that are made before
+ * the star script is initialized inside the WebView.
+ *
+ * The buffer is unbounded and never drops a call; the calls are returned
+ * in the order that they were made by {@link #open()}. To keep it small,
+ * the calls are coalesced while they are buffered:
+ *
+ * 1) A run of identical single star additions (such as "addSmallStar")
+ * becomes a single counted call (such as "addSmallStars('3')"),
+ * 2) A "reset" supersedes every star addition and transaction that was buffered
+ * before it, as well as a previous "reset" that has nothing after it.
+ *
+ * The coalesced calls are counted, see {@link #getCoalescedCount()}.
+ *
+ * Once the buffer is opened, {@link #offer(JavascriptCommand)} only reads
+ * a volatile field and returns false, so the calls can be sent directly without
+ * taking the lock.
+ */
+class PendingCommandBuffer {
+
+    static final String ADD_SMALL_STAR = "addSmallStar";
+    static final String ADD_BIG_STAR = "addBigStar";
+    static final String ADD_SMALL_STARS = "addSmallStars";
+    static final String ADD_BIG_STARS = "addBigStars";
+    static final String APPLY_OPERATIONS = "applyStarOperations";
+    static final String RESET = "reset";
+
+    private final Object mLock = new Object();
+    private final List<Entry> entries = new ArrayList<>();
+
+    private volatile boolean isOpen = false;
+    private int coalescedCount = 0;
+
+    /**
+     * Buffers the command, if the buffer was not opened yet.
+     *
+     * @param command the command to be buffered.
+     * @return true if the command was buffered, false if the buffer is
+     * already open, in which case the command should be sent directly.
+     */
+    boolean offer(@NonNull JavascriptCommand command) {
+        if (isOpen)
+            return false;
+
+        synchronized (mLock) {
+            if (isOpen)
+                return false;
+
+            final Entry last = entries.isEmpty() ? null : entries.get(entries.size() - 1);
+            if (last != null && last.canCount(command)) {
+                last.add(command.callback);
+                coalescedCount++;
+            } else if (RESET.equals(command.functionName)) {
+                supersedeAdditions();
+                entries.add(new Entry(command));
+            } else {
+                entries.add(new Entry(command));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Opens the buffer, so that no other command is buffered afterwards.
+     *
+     * @return the buffered commands, in the order that they should be sent.
+     */
+    @NonNull
+    List<JavascriptCommand> open() {
+        synchronized (mLock) {
+            isOpen = true;
+            final List<JavascriptCommand> commands = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                commands.add(entry.toCommand());
+            }
+            entries.clear();
+            return commands;
+        }
+    }
+
+    /**
+     * Returns how many commands were merged into another command,
+     * or superseded by a reset.
+     */
+    int getCoalescedCount() {
+        synchronized (mLock) {
+            return coalescedCount;
+        }
+    }
+
+    /**
+     * Removes the star additions, the transactions and the trailing reset from
+     * the buffer, since a new reset is going to be buffered. Their callbacks receive
+     * {@link JavascriptCommand#RESULT_SUPERSEDED}, as they will never be applied.
+     */
+    private void supersedeAdditions() {
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            final Entry entry = entries.get(i);
+            final boolean isTrailingReset = i == entries.size() - 1 && RESET.equals(entry.functionName);
+            if (entry.isSupersededByReset() || isTrailingReset) {
+                entries.remove(i);
+                coalescedCount += entry.callbacks.size();
+                entry.deliverResult(JavascriptCommand.RESULT_SUPERSEDED);
+            }
+        }
+    }
+
+    /**
+     * A buffered command, which can represent multiple calls of the same function.
+     */
+    private static class Entry {
+
+        private final JavascriptCommand command;
+        private final String functionName;
+        private final List<ValueCallback<String>> callbacks = new ArrayList<>(1);
+
+        private Entry(JavascriptCommand command) {
+            this.command = command;
+            this.functionName = command.functionName;
+            this.callbacks.add(command.callback);
+        }
+
+        private boolean isSingleAddition() {
+            return ADD_SMALL_STAR.equals(functionName) || ADD_BIG_STAR.equals(functionName);
+        }
+
+        private boolean isSupersededByReset() {
+            return isSingleAddition()
+                    || ADD_SMALL_STARS.equals(functionName)
+                    || ADD_BIG_STARS.equals(functionName)
+                    || APPLY_OPERATIONS.equals(functionName);
+        }
+
+        private boolean canCount(JavascriptCommand other) {
+            return isSingleAddition() && functionName.equals(other.functionName);
+        }
+
+        private void add(@Nullable ValueCallback<String> callback) {
+            callbacks.add(callback);
+        }
+
+        private void deliverResult(String result) {
+            for (ValueCallback<String> callback : callbacks) {
+                if (callback != null)
+                    callback.onReceiveValue(result);
+            }
+        }
+
+        /**
+         * Delivers the result of the counted call, such as "addSmallStars('3')", so
+         * that every merged call receives the result of its own star. The stars are
+         * added in order, so the calls after the added count did not fit into the sky.
+         */
+        private void deliverCountedResult(@Nullable String result) {
+            final JSONObject counted;
+            try {
+                counted = result == null ? null : new JSONObject(result);
+            } catch (JSONException e) {
+                deliverResult(result);
+                return;
+            }
+            if (counted == null || !counted.has("added")) {
+                deliverResult(result);
+                return;
+            }
+
+            final int added = counted.optInt("added");
+            for (int i = 0; i < callbacks.size(); i++) {
+                final ValueCallback<String> callback = callbacks.get(i);
+                if (callback == null)
+                    continue;
+                try {
+                    final JSONObject single = new JSONObject(result)
+                            .put("added", i < added ? 1 : 0)
+                            .put("requested", 1);
+                    callback.onReceiveValue(single.toString());
+                } catch (JSONException e) {
+                    callback.onReceiveValue(result);
+                }
+            }
+        }
+
+        private JavascriptCommand toCommand() {
+            if (callbacks.size() == 1)
+                return command;
+            return new JavascriptCommand(functionName + "s", String.valueOf(callbacks.size()),
+                    this::deliverCountedResult);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.insider.webviewstar;
+
+import android.annotation.SuppressLint;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The {@link StarStore} that keeps the stars inside the preferences, as a
+ * {@link StarCodec} string. This is the format of the previous versions, so
+ * the data saved by them is read as it is; the data in the older JSON format
+ * is migrated the first time the store is opened. If the JSON cannot be migrated,
+ * it is moved to {@link #DATA_BACKUP} as it is, rather than being overwritten.
+ *
+ * Every change rewrites the whole string, and the preferences are committed,
+ * so the writes should be called on a background thread.
+ */
+class PreferencesStarStore implements StarStore {
+
+    private static final String TAG = PreferencesStarStore.class.getSimpleName();
+
+    static final String DATA = "data";
+
+    /**
+     * The key that keeps the data which could not be migrated.
+     */
+    static final String DATA_BACKUP = "data_backup";
+
+    private final SharedPreferences preferences;
+
+    private byte[] stars;
+
+    PreferencesStarStore(@NonNull SharedPreferences preferences) {
+        this.preferences = preferences;
+        this.stars = readStars();
+    }
+
+    /**
+     * Determines whether the preferences contain any star data.
+     */
+    static boolean hasData(@NonNull SharedPreferences preferences) {
+        return preferences.contains(DATA);
+    }
+
+    @Override
+    public synchronized int getCount() {
+        return stars.length;
+    }
+
+    @NonNull
+    @Override
+    public synchronized byte[] getStars() {
+        return stars.clone();
+    }
+
+    @Override
+    public synchronized void append(@NonNull byte[] added, int offset, int length) throws IOException {
+        if (length == 0)
+            return;
+        final byte[] newStars = Arrays.copyOf(stars, stars.length + length);
+        System.arraycopy(added, offset, newStars, stars.length, length);
+        write(newStars);
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        write(new byte[0]);
+    }
+
+    @Override
+    public synchronized void replace(@NonNull byte[] newStars) throws IOException {
+        write(newStars.clone());
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Removes the star data from the preferences, after it is moved to another store.
+     */
+    @SuppressLint("ApplySharedPref")
+    synchronized void clear() {
+        preferences.edit().remove(DATA).commit();
+        stars = new byte[0];
+    }
+
+    @SuppressLint("ApplySharedPref")
+    private void write(byte[] newStars) throws IOException {
+        if (!preferences.edit().putString(DATA, StarCodec.encode(newStars, newStars.length)).commit())
+            throw new IOException("Failed to commit preferences.");
+        stars = newStars;
+    }
+
+    /**
+     * Reads the stars inside the preferences, migrating the JSON format of
+     * the previous versions if needed. The data is only rewritten once it is
+     * migrated; otherwise, it is moved to the backup key, so that the next
+     * write does not overwrite it.
+     */
+    @SuppressLint("ApplySharedPref")
+    private byte[] readStars() {
+        String data = preferences.getString(DATA, "");
+        if (!StarCodec.isEncoded(data)) {
+            final String migrated = StarCodec.fromJson(data);
+            if (migrated == null) {
+                Log.e(TAG, "readStars: Failed to migrate data, moving it to " + DATA_BACKUP + ": " + data);
+                preferences.edit().putString(DATA_BACKUP, data).remove(DATA).commit();
+                return new byte[0];
+            }
+            data = migrated;
+            preferences.edit().putString(DATA, data).apply();
+        }
+
+        final byte[] decoded = StarCodec.decode(data);
+        if (decoded == null) {
+            Log.e(TAG, "readStars: Invalid data: " + data);
+            return new byte[0];
+        }
+        return decoded;
+    }
+}
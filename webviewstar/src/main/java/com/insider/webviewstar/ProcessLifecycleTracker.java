@@ -0,0 +1,165 @@
+package com.insider.webviewstar;
+
+import android.app.Activity;
+import android.app.ActivityManager;
+import android.app.Application;
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The process-wide tracker that determines whether the app is at foreground, by
+ * tracking the started activities. It is registered to the {@link Application} once,
+ * however many SDK instances are created, and notifies any number of {@link Listener}s.
+ *
+ * The tracker is registered by the first SDK instance, usually while an activity is
+ * being created or started, so the activities that were started before are not seen.
+ * The state is seeded when it is registered:
+ *
+ * 1) The app is at foreground if the importance of the process is visible or above,
+ * see {@link ActivityManager#getMyMemoryState(ActivityManager.RunningAppProcessInfo)},
+ * 2) The activity of the SDK is tracked as started if the app is at foreground, unless
+ * it is only created, in which case it is tracked once it is started,
+ * 3) The other activities that were started before are not tracked, so stopping them
+ * never makes the app go to background while a tracked activity is still started.
+ *
+ * The transitions are debounced:
+ *
+ * 1) The app goes to background {@link #BACKGROUND_DELAY_MILLIS} after the last
+ * activity is stopped, so a configuration change, or an activity that is stopped
+ * after the next one is started, does not notify the listeners,
+ * 2) The app goes to foreground as soon as an activity is started, if it was
+ * notified as at background, otherwise the pending background is cancelled.
+ *
+ * The lifecycle callbacks, as well as the listeners, are called on the main thread.
+ */
+class ProcessLifecycleTracker implements ActivityLifecycleCallbacksAdapter {
+
+    /**
+     * How long the app is given to start another activity after the
+     * last one is stopped, before it is considered as at background.
+     */
+    static final long BACKGROUND_DELAY_MILLIS = 700;
+
+    private static final Object sLock = new Object();
+    private static ProcessLifecycleTracker INSTANCE;
+
+    private final Handler mainHandler = StarExecutors.getMainHandler();
+    private final Runnable backgroundTask = this::dispatchBackground;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * The activities that are started, which are removed once they are stopped.
+     */
+    private final Set<Activity> startedActivities = new HashSet<>();
+    private boolean isForeground;
+
+    private ProcessLifecycleTracker(@Nullable Activity activity) {
+        final ActivityManager.RunningAppProcessInfo processInfo = new ActivityManager.RunningAppProcessInfo();
+        ActivityManager.getMyMemoryState(processInfo);
+        isForeground = processInfo.importance <= ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE;
+        if (isForeground && activity != null)
+            startedActivities.add(activity);
+    }
+
+    /**
+     * Returns the tracker, registering it if it was not registered yet.
+     *
+     * @param application the application.
+     * @param activity the activity that the tracker is registered from, if any,
+     *                 which is tracked as started if the app is at foreground.
+     */
+    static ProcessLifecycleTracker getInstance(@NonNull Application application,
+                                               @Nullable Activity activity) {
+        synchronized (sLock) {
+            if (INSTANCE == null) {
+                INSTANCE = new ProcessLifecycleTracker(activity);
+                application.registerActivityLifecycleCallbacks(INSTANCE);
+            }
+            return INSTANCE;
+        }
+    }
+
+    /**
+     * Adds the listener, if it was not added yet.
+     */
+    void addListener(@NonNull Listener listener) {
+        if (!listeners.contains(listener))
+            listeners.add(listener);
+    }
+
+    void removeListener(@NonNull Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Determines whether the app is at foreground, as it was last
+     * notified to the listeners. Called on the main thread.
+     */
+    boolean isForeground() {
+        return isForeground;
+    }
+
+    @Override
+    public void onActivityStarted(@NonNull Activity activity) {
+        if (!startedActivities.add(activity) || startedActivities.size() != 1)
+            return;
+        mainHandler.removeCallbacks(backgroundTask);
+        if (!isForeground) {
+            isForeground = true;
+            for (Listener listener : listeners)
+                listener.onForeground();
+        }
+    }
+
+    @Override
+    public void onActivityStopped(@NonNull Activity activity) {
+        // The activities that were started before the tracker was registered
+        // are not tracked, since it is not known whether they are the last ones.
+        if (!startedActivities.remove(activity))
+            return;
+        if (startedActivities.isEmpty() && isForeground) {
+            mainHandler.removeCallbacks(backgroundTask);
+            mainHandler.postDelayed(backgroundTask, BACKGROUND_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Stops tracking an activity that is destroyed while it is tracked as started,
+     * such as the activity of the SDK if it finishes in its onCreate.
+     */
+    @Override
+    public void onActivityDestroyed(@NonNull Activity activity) {
+        onActivityStopped(activity);
+    }
+
+    private void dispatchBackground() {
+        if (!startedActivities.isEmpty() || !isForeground)
+            return;
+        isForeground = false;
+        for (Listener listener : listeners)
+            listener.onBackground();
+    }
+
+    /**
+     * The listener of the foreground and background transitions of the app.
+     */
+    interface Listener {
+
+        /**
+         * Called when an activity is started after the app went to background.
+         */
+        void onForeground();
+
+        /**
+         * Called when no activity is started for {@link #BACKGROUND_DELAY_MILLIS}.
+         */
+        void onBackground();
+    }
+}
@@ -0,0 +1,87 @@
+package com.insider.webviewstar;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A star inside the sky, which is delivered to a {@link StarChangeListener}
+ * as a part of a {@link StarChange}.
+ *
+ * The stars are immutable, and the stars with the same size, color and brightness
+ * are the same instance, so they can be compared by reference.
+ */
+public final class Star {
+
+    /**
+     * The size of a star.
+     */
+    public enum Size {
+        SMALL,
+        BIG
+    }
+
+    private static final Star[] STARS = new Star[16];
+
+    static {
+        for (int code = 0; code < STARS.length; code++) {
+            final boolean isBig = (code & StarCodec.SIZE_MASK) != 0;
+            final String[] colors = isBig ? StarCodec.BIG_COLORS : StarCodec.SMALL_COLORS;
+            final int colorIndex = (code & StarCodec.COLOR_MASK) >> StarCodec.COLOR_SHIFT;
+            // The script never creates the fourth color index, but every
+            // byte is mapped so that a corrupted star cannot crash a listener.
+            STARS[code] = new Star(isBig ? Size.BIG : Size.SMALL,
+                    colors[Math.min(colorIndex, colors.length - 1)],
+                    (code & StarCodec.BRIGHTNESS_MASK) == 0);
+        }
+    }
+
+    private final Size size;
+    private final String color;
+    private final boolean isBright;
+
+    private Star(@NonNull Size size, @NonNull String color, boolean isBright) {
+        this.size = size;
+        this.color = color;
+        this.isBright = isBright;
+    }
+
+    /**
+     * Returns the star of the given byte in the {@link StarCodec} format.
+     */
+    @NonNull
+    static Star fromCode(byte code) {
+        return STARS[code & (STARS.length - 1)];
+    }
+
+    /**
+     * Returns the size of the star.
+     */
+    @NonNull
+    public Size getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the name of the color. The small stars are "Red", "Blue" or "Green",
+     * and the big stars are "Yellow", "Purple" or "Gray".
+     */
+    @NonNull
+    public String getColor() {
+        return color;
+    }
+
+    /**
+     * Determines whether the star has the "Bright" brightness,
+     * rather than "Not so much".
+     */
+    public boolean isBright() {
+        return isBright;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Star{size=" + size
+                + ", color=" + color
+                + ", brightness=" + (isBright ? StarCodec.BRIGHT : StarCodec.NOT_BRIGHT) + "}";
+    }
+}
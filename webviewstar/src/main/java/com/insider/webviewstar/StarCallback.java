@@ -0,0 +1,18 @@
+package com.insider.webviewstar;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The callback that receives the result of a star operation,
+ * see {@link StarFuture#addCallback(StarCallback)}.
+ */
+public interface StarCallback {
+
+    /**
+     * Called once the operation is applied, or once it is known
+     * that it will never be applied.
+     *
+     * @param result the result of the operation.
+     */
+    void onComplete(@NonNull StarResult result);
+}
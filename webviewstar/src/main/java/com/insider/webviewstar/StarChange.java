@@ -0,0 +1,104 @@
+package com.insider.webviewstar;
+
+import androidx.annotation.NonNull;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * A change of the stars, which is delivered to a {@link StarChangeListener}.
+ * The change is a diff rather than the whole sky:
+ *
+ * 1) If {@link #isReset()} is true, the stars that were known before the change
+ * were removed,
+ * 2) {@link #getAddedStars()} are then appended to the stars.
+ *
+ * The added stars are read from the immutable snapshot of the stars lazily, so
+ * creating a change does not copy them, whatever the size of the change is.
+ */
+public final class StarChange {
+
+    private final boolean isReset;
+    private final StarModel.Snapshot snapshot;
+    private final int from;
+    private final int skippedChangeCount;
+
+    /**
+     * Creates the change.
+     *
+     * @param isReset whether the stars were removed before the added stars.
+     * @param snapshot the stars after the change.
+     * @param from the index of the first added star inside the snapshot.
+     * @param skippedChangeCount how many changes were dropped before this one.
+     */
+    StarChange(boolean isReset, @NonNull StarModel.Snapshot snapshot, int from,
+               int skippedChangeCount) {
+        this.isReset = isReset;
+        this.snapshot = snapshot;
+        this.from = from;
+        this.skippedChangeCount = skippedChangeCount;
+    }
+
+    /**
+     * Determines whether all the stars were removed before {@link #getAddedStars()}
+     * were added, such as after {@link WebViewStarSDK#reset()}.
+     */
+    public boolean isReset() {
+        return isReset;
+    }
+
+    /**
+     * Returns the stars that were added to the end of the stars, in order. The list
+     * is immutable, and it is not affected by the changes after this one.
+     */
+    @NonNull
+    public List<Star> getAddedStars() {
+        return new AbstractList<Star>() {
+            @Override
+            public Star get(int index) {
+                if (index < 0 || index >= size())
+                    throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+                return Star.fromCode(snapshot.getStar(from + index));
+            }
+
+            @Override
+            public int size() {
+                return getAddedCount();
+            }
+        };
+    }
+
+    /**
+     * Returns the count of {@link #getAddedStars()}.
+     */
+    public int getAddedCount() {
+        return snapshot.getCount() - from;
+    }
+
+    /**
+     * Returns the star count after the change.
+     */
+    public int getStarCount() {
+        return snapshot.getCount();
+    }
+
+    /**
+     * Returns how many changes were dropped right before this one by
+     * {@link StarChangeListener.BackpressurePolicy#LATEST}, which is always 0 with
+     * {@link StarChangeListener.BackpressurePolicy#COALESCE}. If it is not 0, the
+     * stars are only known to be the ones reported by {@link #getStarCount()}, and
+     * {@link WebViewStarSDK#getStatistics()} can be used to read their state.
+     */
+    public int getSkippedChangeCount() {
+        return skippedChangeCount;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "StarChange{reset=" + isReset
+                + ", added=" + getAddedCount()
+                + ", count=" + getStarCount()
+                + ", skipped=" + skippedChangeCount + "}";
+    }
+}
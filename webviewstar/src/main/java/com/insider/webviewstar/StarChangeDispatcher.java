@@ -0,0 +1,187 @@
+package com.insider.webviewstar;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The dispatcher that observes {@link StarModel}, and delivers its changes to the
+ * {@link StarChangeListener}s of an SDK instance as {@link StarChange}s.
+ *
+ * The model notifies the dispatcher on the thread that applied the change, which
+ * is usually the JavaBridge thread, so the dispatcher never waits there:
+ *
+ * 1) A change is only recorded as the pending change of every subscription, which
+ * refers to the immutable model snapshot rather than copying the stars,
+ * 2) A subscription posts a single delivery to its executor, and the changes that are
+ * made until the delivery runs, or while the listener is busy, are merged into the
+ * pending change according to the {@link StarChangeListener.BackpressurePolicy},
+ * 3) After the listener returns, the delivery is posted again if there is a
+ * pending change.
+ */
+class StarChangeDispatcher implements StarModel.Observer {
+
+    private static final String TAG = StarChangeDispatcher.class.getSimpleName();
+
+    private final StarModel model;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    StarChangeDispatcher(@NonNull StarModel model) {
+        this.model = model;
+        model.addObserver(this);
+    }
+
+    /**
+     * Adds the listener, which receives the changes made after it is added.
+     */
+    void addListener(@NonNull Executor executor,
+                     @NonNull StarChangeListener.BackpressurePolicy policy,
+                     @NonNull StarChangeListener listener) {
+        subscriptions.add(new Subscription(executor, policy, listener));
+    }
+
+    /**
+     * Removes the listener. A delivery that already started is not interrupted,
+     * but no delivery starts afterwards.
+     */
+    void removeListener(@NonNull StarChangeListener listener) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.listener == listener) {
+                subscription.cancel();
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    /**
+     * Stops observing the model and removes all the listeners.
+     */
+    void close() {
+        model.removeObserver(this);
+        for (Subscription subscription : subscriptions)
+            subscription.cancel();
+        subscriptions.clear();
+    }
+
+    @Override
+    public void onModelChanged(@NonNull StarModel.Snapshot previous,
+                               @NonNull StarModel.Snapshot current) {
+        for (Subscription subscription : subscriptions)
+            subscription.offer(previous, current);
+    }
+
+    /**
+     * A listener together with its executor and its pending change.
+     */
+    private static final class Subscription implements Runnable {
+
+        private final Object mLock = new Object();
+
+        private final Executor executor;
+        private final StarChangeListener.BackpressurePolicy policy;
+        private final StarChangeListener listener;
+
+        /**
+         * The stars after the pending change, or null if there is no pending change.
+         */
+        private StarModel.Snapshot pendingSnapshot;
+        private int pendingFrom;
+        private boolean isPendingReset;
+        private int skippedChangeCount;
+
+        /**
+         * Whether a delivery is posted to the executor or running,
+         * in which case the changes are only recorded.
+         */
+        private boolean isScheduled = false;
+        private boolean isCancelled = false;
+
+        Subscription(@NonNull Executor executor,
+                     @NonNull StarChangeListener.BackpressurePolicy policy,
+                     @NonNull StarChangeListener listener) {
+            this.executor = executor;
+            this.policy = policy;
+            this.listener = listener;
+        }
+
+        /**
+         * Records the change, and posts a delivery if there is none.
+         */
+        void offer(@NonNull StarModel.Snapshot previous, @NonNull StarModel.Snapshot current) {
+            final boolean isAppend = current.isAppendOf(previous);
+            synchronized (mLock) {
+                if (isCancelled)
+                    return;
+
+                if (pendingSnapshot == null || policy == StarChangeListener.BackpressurePolicy.LATEST) {
+                    if (pendingSnapshot != null)
+                        skippedChangeCount++;
+                    isPendingReset = !isAppend;
+                    pendingFrom = isAppend ? previous.getCount() : 0;
+                } else if (!isAppend) {
+                    // The pending change ends with the previous snapshot, so an append
+                    // extends it, and anything else turns it into a reset.
+                    isPendingReset = true;
+                    pendingFrom = 0;
+                }
+                pendingSnapshot = current;
+
+                if (isScheduled)
+                    return;
+                isScheduled = true;
+            }
+            schedule();
+        }
+
+        void cancel() {
+            synchronized (mLock) {
+                isCancelled = true;
+                pendingSnapshot = null;
+            }
+        }
+
+        @Override
+        public void run() {
+            final StarChange change;
+            synchronized (mLock) {
+                if (isCancelled || pendingSnapshot == null) {
+                    isScheduled = false;
+                    return;
+                }
+                change = new StarChange(isPendingReset, pendingSnapshot, pendingFrom, skippedChangeCount);
+                pendingSnapshot = null;
+                skippedChangeCount = 0;
+            }
+
+            try {
+                listener.onStarsChanged(change);
+            } finally {
+                final boolean hasPendingChange;
+                synchronized (mLock) {
+                    hasPendingChange = !isCancelled && pendingSnapshot != null;
+                    isScheduled = hasPendingChange;
+                }
+                // Posted again rather than looping, so that a busy listener
+                // does not monopolize a shared executor.
+                if (hasPendingChange)
+                    schedule();
+            }
+        }
+
+        private void schedule() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                Log.e(TAG, "schedule: Executor rejected the star change delivery", e);
+                synchronized (mLock) {
+                    isScheduled = false;
+                }
+            }
+        }
+    }
+}
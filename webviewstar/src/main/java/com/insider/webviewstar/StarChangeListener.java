@@ -0,0 +1,41 @@
+package com.insider.webviewstar;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The listener that receives the changes of the stars, see
+ * {@link WebViewStarSDK#addStarChangeListener(java.util.concurrent.Executor,
+ * BackpressurePolicy, StarChangeListener)}.
+ */
+public interface StarChangeListener {
+
+    /**
+     * Called on the executor of the listener after the stars changed.
+     * The listener is never called concurrently with itself.
+     *
+     * @param change the change since the previous call.
+     */
+    void onStarsChanged(@NonNull StarChange change);
+
+    /**
+     * The policy that determines what happens to the changes that are made while
+     * the listener is still busy, or while its executor has not run it yet.
+     * The changes never wait for the listener, and a listener has at most
+     * a single pending delivery, whatever the policy is.
+     */
+    enum BackpressurePolicy {
+
+        /**
+         * The pending changes are merged into a single change, so the listener
+         * does not miss any star, see {@link StarChange#isReset()}.
+         */
+        COALESCE,
+
+        /**
+         * Only the latest pending change is delivered, and the ones before it are
+         * dropped, see {@link StarChange#getSkippedChangeCount()}. Suits the listeners
+         * that only need the latest state, such as a star counter on the screen.
+         */
+        LATEST
+    }
+}
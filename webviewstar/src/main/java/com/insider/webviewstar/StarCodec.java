@@ -0,0 +1,252 @@
+package com.insider.webviewstar;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The compact codec of the stars, which is shared with the "StarCodec" class inside
+ * "src/main/js/starfunctions.js". It is used both when the stars travel through the
+ * bridge and when they are saved by {@link StarsDataManager}.
+ *
+ * Every star is a single byte:
+ *
+ * 1) Bit 0 is the size, 0 for small ("S") and 1 for big ("B"),
+ * 2) Bits 1 and 2 are the index of the color inside the colors of the size,
+ * see {@link #SMALL_COLORS} and {@link #BIG_COLORS},
+ * 3) Bit 3 is the brightness, 0 for "Bright" and 1 for "Not so much".
+ *
+ * The encoded text is the version, a colon and the base64 of the star bytes,
+ * such as "1:AQk=". An empty text means that there are no stars.
+ *
+ * The decoder does not use {@link JSONArray}, and the star count of an encoded
+ * text can be read without decoding it via {@link #count(String)}. The JSON
+ * format is only parsed to migrate the data saved by the previous versions,
+ * see {@link #fromJson(String)}.
+ */
+class StarCodec {
+
+    private static final String TAG = StarCodec.class.getSimpleName();
+
+    static final int VERSION = 1;
+
+    private static final String PREFIX = VERSION + ":";
+
+    static final int SIZE_MASK = 0x1;
+    static final int COLOR_MASK = 0x6;
+    static final int COLOR_SHIFT = 1;
+    static final int BRIGHTNESS_MASK = 0x8;
+
+    static final String SMALL = "S";
+    static final String BIG = "B";
+    static final String BRIGHT = "Bright";
+    static final String NOT_BRIGHT = "Not so much";
+    static final String[] SMALL_COLORS = {"Red", "Blue", "Green"};
+    static final String[] BIG_COLORS = {"Yellow", "Purple", "Gray"};
+
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] BASE64_VALUES = new int[128];
+
+    static {
+        for (int i = 0; i < BASE64_VALUES.length; i++)
+            BASE64_VALUES[i] = -1;
+        for (int i = 0; i < BASE64.length; i++)
+            BASE64_VALUES[BASE64[i]] = i;
+    }
+
+    private StarCodec() {}
+
+    /**
+     * Determines whether the text is in the encoded format, rather than the
+     * JSON format of the previous versions. An empty text is considered encoded.
+     *
+     * @param text the text to check.
+     */
+    static boolean isEncoded(@Nullable String text) {
+        return text == null || text.isEmpty() || text.startsWith(PREFIX);
+    }
+
+    /**
+     * Encodes the stars.
+     *
+     * @param stars the star bytes.
+     * @param count how many stars of the array should be encoded.
+     * @return the encoded text.
+     */
+    @NonNull
+    static String encode(@NonNull byte[] stars, int count) {
+        return encode(stars, 0, count);
+    }
+
+    /**
+     * Encodes a range of the stars.
+     *
+     * @param stars the star bytes.
+     * @param offset the index of the first star to be encoded.
+     * @param count how many stars should be encoded.
+     * @return the encoded text.
+     */
+    @NonNull
+    static String encode(@NonNull byte[] stars, int offset, int count) {
+        final StringBuilder builder = new StringBuilder(PREFIX.length() + (count + 2) / 3 * 4)
+                .append(PREFIX);
+        final int end = offset + count;
+        int i = offset;
+        for (; i + 2 < end; i += 3) {
+            final int bits = (stars[i] & 0xFF) << 16 | (stars[i + 1] & 0xFF) << 8 | (stars[i + 2] & 0xFF);
+            builder.append(BASE64[bits >>> 18])
+                    .append(BASE64[(bits >>> 12) & 0x3F])
+                    .append(BASE64[(bits >>> 6) & 0x3F])
+                    .append(BASE64[bits & 0x3F]);
+        }
+        final int remaining = end - i;
+        if (remaining == 1) {
+            final int bits = (stars[i] & 0xFF) << 16;
+            builder.append(BASE64[bits >>> 18])
+                    .append(BASE64[(bits >>> 12) & 0x3F])
+                    .append("==");
+        } else if (remaining == 2) {
+            final int bits = (stars[i] & 0xFF) << 16 | (stars[i + 1] & 0xFF) << 8;
+            builder.append(BASE64[bits >>> 18])
+                    .append(BASE64[(bits >>> 12) & 0x3F])
+                    .append(BASE64[(bits >>> 6) & 0x3F])
+                    .append('=');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Decodes the stars.
+     *
+     * @param text the encoded text.
+     * @return the star bytes, which is empty if the text is empty, or null
+     * if the text is not valid.
+     */
+    @Nullable
+    static byte[] decode(@Nullable String text) {
+        if (text == null || text.isEmpty())
+            return new byte[0];
+        if (!text.startsWith(PREFIX))
+            return null;
+
+        final int count = count(text);
+        if (count < 0)
+            return null;
+
+        final byte[] stars = new byte[count];
+        int position = PREFIX.length();
+        int written = 0;
+        while (written < count) {
+            int bits = 0;
+            for (int j = 0; j < 4; j++) {
+                final char c = text.charAt(position++);
+                final int value = c == '=' ? 0 : c < 128 ? BASE64_VALUES[c] : -1;
+                if (value < 0)
+                    return null;
+                bits = bits << 6 | value;
+            }
+            stars[written++] = (byte) (bits >>> 16);
+            if (written < count)
+                stars[written++] = (byte) (bits >>> 8);
+            if (written < count)
+                stars[written++] = (byte) bits;
+        }
+        return stars;
+    }
+
+    /**
+     * Returns the star count of the encoded text without decoding it.
+     *
+     * @param text the encoded text.
+     * @return the star count, 0 if the text is empty, or -1 if the text is not valid.
+     */
+    static int count(@Nullable String text) {
+        if (text == null || text.isEmpty())
+            return 0;
+        if (!text.startsWith(PREFIX))
+            return -1;
+
+        final int length = text.length() - PREFIX.length();
+        if (length % 4 != 0)
+            return -1;
+        if (length == 0)
+            return 0;
+
+        int padding = 0;
+        if (text.charAt(text.length() - 1) == '=')
+            padding++;
+        if (text.charAt(text.length() - 2) == '=')
+            padding++;
+        return length / 4 * 3 - padding;
+    }
+
+    /**
+     * Converts the JSON format of the previous versions, such as
+     * [{"size":"B","color":"Purple","brightness":"Not so much"}], to the encoded text.
+     *
+     * @param json the stars in JSON format.
+     * @return the encoded text, or null if the JSON could not be parsed.
+     */
+    @Nullable
+    static String fromJson(@NonNull String json) {
+        try {
+            final JSONArray array = new JSONArray(json);
+            final byte[] stars = new byte[array.length()];
+            for (int i = 0; i < stars.length; i++) {
+                final JSONObject star = array.getJSONObject(i);
+                final int code = toCode(star.optString("size"), star.optString("color"),
+                        star.optString("brightness"));
+                if (code < 0)
+                    return null;
+                stars[i] = (byte) code;
+            }
+            return encode(stars, stars.length);
+        } catch (JSONException e) {
+            Log.e(TAG, "fromJson: Failed to parse JSON: " + json, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the byte of a star.
+     *
+     * @return the byte of the star, or -1 if any of the values is not known.
+     */
+    static int toCode(String size, String color, String brightness) {
+        final int sizeBit;
+        final String[] colors;
+        if (SMALL.equals(size)) {
+            sizeBit = 0;
+            colors = SMALL_COLORS;
+        } else if (BIG.equals(size)) {
+            sizeBit = 1;
+            colors = BIG_COLORS;
+        } else {
+            return -1;
+        }
+
+        int colorIndex = -1;
+        for (int i = 0; i < colors.length; i++) {
+            if (colors[i].equals(color))
+                colorIndex = i;
+        }
+        if (colorIndex < 0)
+            return -1;
+
+        final int brightnessBit;
+        if (BRIGHT.equals(brightness))
+            brightnessBit = 0;
+        else if (NOT_BRIGHT.equals(brightness))
+            brightnessBit = BRIGHTNESS_MASK;
+        else
+            return -1;
+
+        return sizeBit | colorIndex << COLOR_SHIFT | brightnessBit;
+    }
+}
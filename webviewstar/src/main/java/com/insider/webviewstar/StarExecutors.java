@@ -0,0 +1,247 @@
+package com.insider.webviewstar;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The process-wide threading model of the SDK, which every component schedules its
+ * work through, instead of creating its own threads. The work runs on one of the lanes:
+ *
+ * 1) {@link #main()}: everything that touches the WebView or the views, such as the
+ * {@link WebViewFunctionManager}, the {@link StarStateHub} sync and the lifecycle
+ * callbacks. The timers of the SDK, such as the persistence window and the notification
+ * delay, are also timed on the main thread via {@link #getMainHandler()}, and only hand
+ * their work over to another lane once they fire, so they need no thread of their own,
+ * 2) {@link #io()}: the work that touches the disk or the system services, such as the
+ * writes of the {@link StarsPersister}, and posting the notification. The lane is
+ * serial, so the tasks run one at a time in the order that they were submitted, and
+ * the {@link StarStore} is never accessed concurrently,
+ * 3) {@link #compute()}: the work that only needs the CPU, and should not run on the
+ * main thread, such as preparing the star script after the page is loaded.
+ *
+ * The work that the platform runs on its own threads stays there: the JavaBridge
+ * thread only applies the changes to the {@link StarModel}, the WebView IO threads
+ * serve the {@link StarImageCache}, and the workers hand their work over to the lanes.
+ *
+ * By default, the threads of the lanes are created the first time they are needed,
+ * and they exit after {@link #KEEP_ALIVE_SECONDS} without work. The host app can
+ * inject its own executors instead, see {@link WebViewStarConfig.Builder#setIoExecutor(Executor)}
+ * and {@link WebViewStarConfig.Builder#setComputeExecutor(Executor)}, in which case
+ * the SDK does not create any thread. The IO lane stays serial over an injected
+ * executor, even if it runs the tasks concurrently. The executors are injected once
+ * per process: the first instance that passes an executor for a lane sets it, and
+ * the instances created afterwards cannot replace it, see {@link #setExecutors}.
+ */
+final class StarExecutors {
+
+    private static final String TAG = StarExecutors.class.getSimpleName();
+
+    /**
+     * How long an idle thread of the default executors is kept.
+     */
+    static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * The maximum thread count of the default compute executor, which leaves
+     * a core for the main thread and the renderer.
+     */
+    private static final int MAX_COMPUTE_THREADS =
+            Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    private static final Executor MAIN = MAIN_HANDLER::post;
+    private static final SerialExecutor IO = new SerialExecutor();
+    private static final Executor COMPUTE = task -> getComputeExecutor().execute(task);
+
+    private static final Object sLock = new Object();
+
+    @Nullable
+    private static Executor sIoExecutor;
+    @Nullable
+    private static Executor sComputeExecutor;
+    @Nullable
+    private static Executor sDefaultIoExecutor;
+    @Nullable
+    private static Executor sDefaultComputeExecutor;
+
+    private StarExecutors() {}
+
+    /**
+     * Returns the executor of the main thread.
+     */
+    @NonNull
+    static Executor main() {
+        return MAIN;
+    }
+
+    /**
+     * Returns the handler of the main thread, which is shared by the SDK,
+     * for the tasks that are delayed or removed.
+     */
+    @NonNull
+    static Handler getMainHandler() {
+        return MAIN_HANDLER;
+    }
+
+    /**
+     * Returns the serial executor of the IO lane.
+     */
+    @NonNull
+    static Executor io() {
+        return IO;
+    }
+
+    /**
+     * Returns the executor of the compute lane.
+     */
+    @NonNull
+    static Executor compute() {
+        return COMPUTE;
+    }
+
+    /**
+     * Sets the executors that back the lanes, which is called by every instance
+     * of the SDK. An executor is only set once per process:
+     *
+     * 1) A null executor keeps the executor of the lane, so an instance without
+     * executors does not reset the ones injected by another instance,
+     * 2) An executor is ignored if the lane already has another injected executor,
+     * since the work of the other instances is already running on it.
+     *
+     * The tasks that were already submitted to the IO lane keep their order,
+     * and the next ones run on the injected executor.
+     *
+     * @param ioExecutor the executor that backs the IO lane, or null.
+     * @param computeExecutor the executor of the compute lane, or null.
+     */
+    static void setExecutors(@Nullable Executor ioExecutor, @Nullable Executor computeExecutor) {
+        synchronized (sLock) {
+            sIoExecutor = select("IO", sIoExecutor, ioExecutor);
+            sComputeExecutor = select("compute", sComputeExecutor, computeExecutor);
+        }
+    }
+
+    @Nullable
+    private static Executor select(@NonNull String lane, @Nullable Executor current,
+                                   @Nullable Executor executor) {
+        if (executor == null || current == null)
+            return current != null ? current : executor;
+        if (executor != current)
+            Log.w(TAG, "setExecutors: The " + lane + " executor was already set, ignoring the new one.");
+        return current;
+    }
+
+    @NonNull
+    private static Executor getIoExecutor() {
+        synchronized (sLock) {
+            if (sIoExecutor != null)
+                return sIoExecutor;
+            if (sDefaultIoExecutor == null)
+                sDefaultIoExecutor = createExecutor("WebViewStarSDK-IO", 1);
+            return sDefaultIoExecutor;
+        }
+    }
+
+    @NonNull
+    private static Executor getComputeExecutor() {
+        synchronized (sLock) {
+            if (sComputeExecutor != null)
+                return sComputeExecutor;
+            if (sDefaultComputeExecutor == null)
+                sDefaultComputeExecutor = createExecutor("WebViewStarSDK-Compute", MAX_COMPUTE_THREADS);
+            return sDefaultComputeExecutor;
+        }
+    }
+
+    /**
+     * Creates a bounded executor, whose threads are created once the tasks are
+     * submitted, and exit after {@link #KEEP_ALIVE_SECONDS} without work.
+     */
+    @NonNull
+    private static Executor createExecutor(@NonNull String name, int threadCount) {
+        final AtomicInteger index = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }, threadCount == 1 ? name : name + "-" + index.incrementAndGet()));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * The executor that runs the tasks one at a time, in the order that they were
+     * submitted, on the executor of the IO lane. A failing task is logged, so it
+     * does not stop the tasks after it.
+     */
+    private static final class SerialExecutor implements Executor {
+
+        private final Object mLock = new Object();
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private final Runnable drainTask = this::drain;
+
+        private boolean isRunning = false;
+
+        @Override
+        public void execute(@NonNull Runnable task) {
+            synchronized (mLock) {
+                tasks.add(task);
+                if (isRunning)
+                    return;
+                isRunning = true;
+            }
+            submitDrain();
+        }
+
+        /**
+         * Runs a single task, and submits the drain again if there are more,
+         * so that a lane over a shared executor does not hold its thread.
+         */
+        private void drain() {
+            final Runnable task;
+            synchronized (mLock) {
+                task = tasks.poll();
+                if (task == null) {
+                    isRunning = false;
+                    return;
+                }
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "drain: Failed to run an IO task.", e);
+            } finally {
+                submitDrain();
+            }
+        }
+
+        /**
+         * Submits the drain to the executor of the IO lane. If the executor rejects
+         * it, the lane is stopped, and the next task submits the drain again.
+         */
+        private void submitDrain() {
+            try {
+                getIoExecutor().execute(drainTask);
+            } catch (RejectedExecutionException e) {
+                Log.e(TAG, "submitDrain: Executor rejected the IO task", e);
+                synchronized (mLock) {
+                    isRunning = false;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.insider.webviewstar;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending result of a star operation, which is returned by the operations of
+ * {@link WebViewStarSDK}. The future completes once the star script applied the
+ * operation, or once it is known that the operation will never be applied,
+ * such as when the SDK is destroyed, see {@link StarResult.FailureReason}.
+ *
+ * The result can either be received with a {@link StarCallback}, or waited for
+ * with {@link #get()} on a background thread. The operation cannot be cancelled,
+ * as it may already be sent to the WebView.
+ */
+public final class StarFuture implements Future<StarResult> {
+
+    private static final Handler MAIN_HANDLER = StarExecutors.getMainHandler();
+
+    private final Object mLock = new Object();
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final List<Runnable> callbacks = new ArrayList<>(1);
+
+    private StarResult result;
+
+    StarFuture() {
+    }
+
+    /**
+     * Creates a future that is already completed with the result.
+     */
+    @NonNull
+    static StarFuture completed(@NonNull StarResult result) {
+        final StarFuture future = new StarFuture();
+        future.complete(result);
+        return future;
+    }
+
+    /**
+     * Adds the callback, which is called on the main thread once the future
+     * completes, or immediately if it is already completed.
+     *
+     * @param callback the callback.
+     * @return this future.
+     */
+    @NonNull
+    public StarFuture addCallback(@NonNull StarCallback callback) {
+        return addCallback(MAIN_HANDLER::post, callback);
+    }
+
+    /**
+     * Adds the callback, which is called on the executor once the future
+     * completes, or immediately if it is already completed.
+     *
+     * @param executor the executor that the callback is called on.
+     * @param callback the callback.
+     * @return this future.
+     */
+    @NonNull
+    public StarFuture addCallback(@NonNull Executor executor, @NonNull StarCallback callback) {
+        final Runnable task = () -> executor.execute(() -> callback.onComplete(result));
+        synchronized (mLock) {
+            if (result == null) {
+                callbacks.add(task);
+                return this;
+            }
+        }
+        task.run();
+        return this;
+    }
+
+    /**
+     * Completes the future with the result, if it is not completed yet.
+     *
+     * @param result the result.
+     */
+    void complete(@NonNull StarResult result) {
+        final List<Runnable> tasks;
+        synchronized (mLock) {
+            if (this.result != null)
+                return;
+            this.result = result;
+            tasks = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+        latch.countDown();
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+
+    /**
+     * The operation cannot be cancelled, so this always returns false.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return latch.getCount() == 0;
+    }
+
+    /**
+     * Waits until the operation is applied. Should not be called on the main
+     * thread, since the result is delivered on the main thread.
+     *
+     * @return the result.
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     */
+    @NonNull
+    @Override
+    public StarResult get() throws InterruptedException {
+        checkNotMainThread();
+        latch.await();
+        return result;
+    }
+
+    /**
+     * Waits until the operation is applied, up to the timeout. Should not be
+     * called on the main thread, since the result is delivered on the main thread.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the timeout.
+     * @return the result.
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     * @throws TimeoutException if the operation was not applied within the timeout.
+     */
+    @NonNull
+    @Override
+    public StarResult get(long timeout, @NonNull TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        checkNotMainThread();
+        if (!latch.await(timeout, unit))
+            throw new TimeoutException("Star operation was not applied within " + timeout + " " + unit);
+        return result;
+    }
+
+    private static void checkNotMainThread() {
+        if (Looper.myLooper() == Looper.getMainLooper())
+            throw new IllegalStateException("Cannot wait for a star operation on the main thread.");
+    }
+}
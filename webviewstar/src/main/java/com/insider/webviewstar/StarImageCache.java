@@ -0,0 +1,425 @@
+package com.insider.webviewstar;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The disk cache of the star image, which {@link StarWebViewClient} serves the
+ * image from instead of leaving it to the HTTP cache of the WebView, so:
+ *
+ * 1) The image is downloaded once, and the page loads without the network
+ * afterwards, including when the device is offline,
+ * 2) A version that is downsampled to the width of the WebView can be served instead,
+ * so the page does not decode a larger image than it can show,
+ * 3) The total size of the cached files is capped, and the least recently used
+ * files are deleted once the cap is exceeded.
+ *
+ * Every entry is a single file, which contains the MIME type followed by the
+ * image bytes, and is written to a temporary file first, so a crash never leaves
+ * a partial entry. The cache is accessed on the IO threads of the WebView, so every
+ * operation is blocking. The file operations are serialized, while a download only
+ * blocks the other requests of the same URL, so that a slow network never blocks
+ * the requests of the other images, or the cache settings.
+ */
+class StarImageCache {
+
+    private static final String TAG = StarImageCache.class.getSimpleName();
+
+    static final String DIRECTORY_NAME = "webviewstar_images";
+    private static final String ENTRY_SUFFIX = ".img";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int TIMEOUT_MILLIS = 10_000;
+    private static final int DOWNSAMPLED_QUALITY = 90;
+
+    private static final Object sLock = new Object();
+
+    private static StarImageCache INSTANCE;
+
+    private final Object mLock = new Object();
+
+    /**
+     * The locks of the URLs, which are held while the image of the URL is downloaded.
+     */
+    private final Map<String, Object> urlLocks = new HashMap<>();
+    private final File directory;
+    private final Downsampler downsampler;
+
+    private volatile long maxSizeBytes;
+
+    static StarImageCache getInstance(Context context) {
+        synchronized (sLock) {
+            if (INSTANCE == null)
+                INSTANCE = new StarImageCache(new File(context.getCacheDir(), DIRECTORY_NAME),
+                        WebViewStarConfig.DEFAULT_IMAGE_CACHE_SIZE_BYTES, new BitmapDownsampler());
+            return INSTANCE;
+        }
+    }
+
+    @VisibleForTesting
+    StarImageCache(@NonNull File directory, long maxSizeBytes, @NonNull Downsampler downsampler) {
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+        this.downsampler = downsampler;
+    }
+
+    /**
+     * Sets the cap of the total size of the cached files, which are trimmed on the
+     * IO lane of the SDK. This is a process-wide setting, so the last created
+     * instance determines it.
+     */
+    void setMaxSizeBytes(long maxSizeBytes) {
+        this.maxSizeBytes = maxSizeBytes;
+        StarExecutors.io().execute(() -> {
+            synchronized (mLock) {
+                trim();
+            }
+        });
+    }
+
+    /**
+     * Returns the image of the URL, downloading it if it is not cached.
+     *
+     * If a target width is given, and the image is wider, a version downsampled to
+     * the width is returned and cached separately. If the image cannot be downloaded,
+     * any cached version of it is returned.
+     *
+     * @param url the URL of the image.
+     * @param targetWidth the width in pixels that the image is shown at,
+     *                    or 0 to return the original image.
+     * @return the image, or null if it is neither cached nor could be downloaded.
+     */
+    @Nullable
+    Image get(@NonNull String url, int targetWidth) {
+        // The cache lock is only held around the file operations, and not while
+        // the image is downloaded or downsampled.
+        synchronized (getUrlLock(url)) {
+            final File variantFile = entryFile(url, targetWidth);
+            Image image = readEntry(variantFile);
+            if (image != null)
+                return image;
+
+            final File originalFile = entryFile(url, 0);
+            Image original = targetWidth > 0 ? readEntry(originalFile) : null;
+            if (original == null) {
+                original = download(url);
+                if (original == null) {
+                    synchronized (mLock) {
+                        return readAnyVersion(url);
+                    }
+                }
+                writeEntry(originalFile, original);
+            }
+            if (targetWidth <= 0)
+                return original;
+
+            final byte[] downsampled = downsampler.downsample(original.data, targetWidth);
+            if (downsampled == null)
+                return original;
+            image = new Image(Downsampler.MIME_TYPE, downsampled);
+            writeEntry(variantFile, image);
+            return image;
+        }
+    }
+
+    /**
+     * Deletes all the cached files.
+     */
+    void clear() {
+        synchronized (mLock) {
+            final File[] files = directory.listFiles();
+            if (files == null)
+                return;
+            for (File file : files) {
+                if (!file.delete())
+                    Log.e(TAG, "clear: Failed to delete " + file);
+            }
+        }
+    }
+
+    /**
+     * Returns the total size of the cached files.
+     */
+    long getSizeBytes() {
+        synchronized (mLock) {
+            long size = 0;
+            for (File file : listEntries())
+                size += file.length();
+            return size;
+        }
+    }
+
+    private Object getUrlLock(String url) {
+        synchronized (urlLocks) {
+            Object lock = urlLocks.get(url);
+            if (lock == null) {
+                lock = new Object();
+                urlLocks.put(url, lock);
+            }
+            return lock;
+        }
+    }
+
+    @Nullable
+    private Image readEntry(File file) {
+        synchronized (mLock) {
+            return read(file);
+        }
+    }
+
+    private void writeEntry(File file, Image image) {
+        synchronized (mLock) {
+            write(file, image);
+        }
+    }
+
+    @Nullable
+    private Image download(String url) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                Log.e(TAG, "download: Unexpected response " + connection.getResponseCode() + " for " + url);
+                return null;
+            }
+            final String contentType = connection.getContentType();
+            try (InputStream input = connection.getInputStream()) {
+                return new Image(toMimeType(contentType), readFully(input));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "download: Failed to download " + url, e);
+            return null;
+        } finally {
+            if (connection != null)
+                connection.disconnect();
+        }
+    }
+
+    /**
+     * Reads the entry, and marks it as the most recently used.
+     */
+    @Nullable
+    private Image read(File file) {
+        if (!file.isFile())
+            return null;
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            final String mimeType = input.readUTF();
+            final Image image = new Image(mimeType, readFully(input));
+            if (!file.setLastModified(System.currentTimeMillis()))
+                Log.d(TAG, "read: Failed to update the access time of " + file);
+            return image;
+        } catch (IOException e) {
+            Log.e(TAG, "read: Failed to read " + file + ", deleting it.", e);
+            if (!file.delete())
+                Log.e(TAG, "read: Failed to delete " + file);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the most recently used version of the image, whatever its width is,
+     * which is used when the image cannot be downloaded.
+     */
+    @Nullable
+    private Image readAnyVersion(String url) {
+        final String prefix = hash(url) + "_";
+        File latest = null;
+        for (File entry : listEntries()) {
+            if (entry.getName().startsWith(prefix)
+                    && (latest == null || entry.lastModified() > latest.lastModified()))
+                latest = entry;
+        }
+        return latest == null ? null : read(latest);
+    }
+
+    private void write(File file, Image image) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "write: Failed to create " + directory);
+            return;
+        }
+        final File tempFile = new File(directory, file.getName() + TEMP_SUFFIX);
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(tempFile))) {
+            output.writeUTF(image.mimeType);
+            output.write(image.data);
+        } catch (IOException e) {
+            Log.e(TAG, "write: Failed to write " + file, e);
+            if (!tempFile.delete())
+                Log.e(TAG, "write: Failed to delete " + tempFile);
+            return;
+        }
+        if (!tempFile.renameTo(file)) {
+            Log.e(TAG, "write: Failed to rename " + tempFile);
+            return;
+        }
+        trim();
+    }
+
+    /**
+     * Deletes the least recently used entries until the total size is within the cap.
+     * The entry that was just written is deleted too if it is larger than the cap.
+     */
+    private void trim() {
+        final File[] entries = listEntries();
+        long size = 0;
+        for (File entry : entries)
+            size += entry.length();
+        if (size <= maxSizeBytes)
+            return;
+
+        final long[] lastModified = new long[entries.length];
+        final Integer[] order = new Integer[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            lastModified[i] = entries[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(lastModified[a], lastModified[b]));
+        for (int i = 0; i < order.length && size > maxSizeBytes; i++) {
+            final File entry = entries[order[i]];
+            final long length = entry.length();
+            if (entry.delete())
+                size -= length;
+            else
+                Log.e(TAG, "trim: Failed to delete " + entry);
+        }
+    }
+
+    private File[] listEntries() {
+        final File[] entries = directory.listFiles((dir, name) -> name.endsWith(ENTRY_SUFFIX));
+        return entries == null ? new File[0] : entries;
+    }
+
+    private File entryFile(String url, int width) {
+        return new File(directory, hash(url) + "_" + width + ENTRY_SUFFIX);
+    }
+
+    private static String hash(String url) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(url.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder builder = new StringBuilder(32);
+            for (int i = 0; i < 16; i++)
+                builder.append(String.format("%02x", digest[i]));
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
+    /**
+     * Returns the MIME type of the Content-Type header, without its parameters.
+     */
+    private static String toMimeType(@Nullable String contentType) {
+        if (contentType == null || contentType.isEmpty())
+            return Downsampler.MIME_TYPE;
+        final int separator = contentType.indexOf(';');
+        return (separator < 0 ? contentType : contentType.substring(0, separator)).trim();
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1)
+            output.write(buffer, 0, read);
+        return output.toByteArray();
+    }
+
+    /**
+     * A cached image.
+     */
+    static final class Image {
+
+        @NonNull
+        final String mimeType;
+
+        @NonNull
+        final byte[] data;
+
+        Image(@NonNull String mimeType, @NonNull byte[] data) {
+            this.mimeType = mimeType;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Creates the downsampled version of an image.
+     */
+    interface Downsampler {
+
+        /**
+         * The MIME type of the downsampled images.
+         */
+        String MIME_TYPE = "image/jpeg";
+
+        /**
+         * Downsamples the image to the target width.
+         *
+         * @param image the bytes of the original image.
+         * @param targetWidth the width in pixels.
+         * @return the bytes of the downsampled image, or null if the image is
+         * not wider than the target width, or it could not be decoded.
+         */
+        @Nullable
+        byte[] downsample(@NonNull byte[] image, int targetWidth);
+    }
+
+    /**
+     * The downsampler that decodes the image with a power of two sample size,
+     * so the whole image is never decoded, and scales it to the exact width.
+     */
+    static final class BitmapDownsampler implements Downsampler {
+
+        @Nullable
+        @Override
+        public byte[] downsample(@NonNull byte[] image, int targetWidth) {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(image, 0, image.length, options);
+            if (options.outWidth <= 0 || options.outWidth <= targetWidth)
+                return null;
+
+            final int width = options.outWidth;
+            final int height = options.outHeight;
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = 1;
+            while (width / (options.inSampleSize * 2) >= targetWidth)
+                options.inSampleSize *= 2;
+            final Bitmap sampled = BitmapFactory.decodeByteArray(image, 0, image.length, options);
+            if (sampled == null)
+                return null;
+
+            final int targetHeight = Math.max(1, (int) ((long) height * targetWidth / width));
+            final Bitmap scaled = Bitmap.createScaledBitmap(sampled, targetWidth, targetHeight, true);
+            if (scaled != sampled)
+                sampled.recycle();
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final boolean isCompressed = scaled.compress(Bitmap.CompressFormat.JPEG, DOWNSAMPLED_QUALITY, output);
+            scaled.recycle();
+            return isCompressed ? output.toByteArray() : null;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package com.insider.webviewstar;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * The append-only persistence of the stars, which keeps the stars as a snapshot
+ * file and a journal file of the changes made after the snapshot.
+ *
+ * Every change is appended to the journal as a small record (a single star,
+ * a bulk of stars, a reset, or a full replacement), so the cost of a change depends
+ * on the size of the change, and not on the count of the stars. Once the journal
+ * grows beyond {@link #COMPACTION_THRESHOLD_BYTES}, {@link #needsCompaction()} returns true
+ * and {@link #compact()} should be called on a background thread, which writes a new
+ * snapshot and starts an empty journal.
+ *
+ * The files are formatted as:
+ *
+ * 1) Snapshot: magic, format version, generation, star count, star bytes, CRC32,
+ * 2) Journal: magic, format version, generation, followed by the records,
+ * 3) Record: type, payload length, payload, CRC32 of the previous fields.
+ *
+ * The journal only belongs to the snapshot with the same generation, so a journal
+ * that was already compacted into a newer snapshot is never replayed. When loaded,
+ * the journal is replayed until the first incomplete or corrupted record, and the rest
+ * of the file is truncated, so a record that was cut by a crash is simply dropped.
+ * A record whose write fails is truncated right away, so that the records written
+ * after it are not appended after a partial record, which would stop the replay.
+ *
+ * The stars are also kept in memory, so the reads never touch the disk. All the
+ * methods are synchronized.
+ *
+ * This is the default {@link StarStore}, which is compacted by {@link #maintain()}.
+ */
+class StarJournal implements StarStore {
+
+    private static final String TAG = StarJournal.class.getSimpleName();
+
+    static final String SNAPSHOT_FILE_NAME = "stars.snapshot";
+    static final String JOURNAL_FILE_NAME = "stars.journal";
+
+    static final long COMPACTION_THRESHOLD_BYTES = 64 * 1024;
+
+    private static final int SNAPSHOT_MAGIC = 0x53544152; // "STAR"
+    private static final int JOURNAL_MAGIC = 0x534A4E4C; // "SJNL"
+    private static final int FORMAT_VERSION = 1;
+    private static final int JOURNAL_HEADER_SIZE = 4 + 1 + 8;
+    private static final int RECORD_OVERHEAD = 1 + 4 + 4;
+
+    static final byte TYPE_ADD = 1;
+    static final byte TYPE_BULK_ADD = 2;
+    static final byte TYPE_RESET = 3;
+    static final byte TYPE_REPLACE = 4;
+
+    private final File snapshotFile;
+    private final File journalFile;
+
+    private byte[] stars = new byte[16];
+    private int count = 0;
+    private long generation = 0;
+    private long journalSize = 0;
+    private FileOutputStream journalOutput;
+
+    /**
+     * Whether a partial record could not be truncated after a failed write, in
+     * which case the journal is replaced by compacting the stars before the next
+     * record is written.
+     */
+    private boolean isTailDamaged = false;
+
+    /**
+     * Opens the journal inside the directory, and replays the existing
+     * snapshot and journal, if any.
+     *
+     * @param directory the directory of the files, which is created if it does not exist.
+     * @throws IOException if the files could not be read or created.
+     */
+    StarJournal(@NonNull File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Failed to create directory: " + directory);
+        snapshotFile = new File(directory, SNAPSHOT_FILE_NAME);
+        journalFile = new File(directory, JOURNAL_FILE_NAME);
+        load();
+    }
+
+    @Override
+    public synchronized int getCount() {
+        return count;
+    }
+
+    @NonNull
+    @Override
+    public synchronized byte[] getStars() {
+        return Arrays.copyOf(stars, count);
+    }
+
+    /**
+     * Appends the stars.
+     *
+     * @param added the bytes of the stars to be added.
+     * @param offset the offset of the first star inside the array.
+     * @param length how many stars should be added.
+     * @throws IOException if the record could not be written.
+     */
+    @Override
+    public synchronized void append(@NonNull byte[] added, int offset, int length) throws IOException {
+        if (length == 0)
+            return;
+        writeRecord(length == 1 ? TYPE_ADD : TYPE_BULK_ADD, added, offset, length);
+        appendInMemory(added, offset, length);
+    }
+
+    /**
+     * Removes all the stars.
+     *
+     * @throws IOException if the record could not be written.
+     */
+    @Override
+    public synchronized void reset() throws IOException {
+        if (count == 0)
+            return;
+        writeRecord(TYPE_RESET, stars, 0, 0);
+        count = 0;
+    }
+
+    /**
+     * Replaces the stars with the given ones, writing only the difference
+     * if the new stars start with the existing ones.
+     *
+     * @param newStars the new stars.
+     * @throws IOException if the record could not be written.
+     */
+    @Override
+    public synchronized void replace(@NonNull byte[] newStars) throws IOException {
+        if (newStars.length == 0) {
+            reset();
+        } else if (newStars.length >= count && startsWithCurrent(newStars)) {
+            append(newStars, count, newStars.length - count);
+        } else {
+            writeRecord(TYPE_REPLACE, newStars, 0, newStars.length);
+            count = 0;
+            appendInMemory(newStars, 0, newStars.length);
+        }
+    }
+
+    /**
+     * Determines whether the journal grew enough to be compacted.
+     */
+    synchronized boolean needsCompaction() {
+        return journalSize > COMPACTION_THRESHOLD_BYTES;
+    }
+
+    /**
+     * Writes the current stars as a new snapshot, and starts an empty journal.
+     * Should be called on a background thread.
+     *
+     * @throws IOException if the snapshot or the journal could not be written.
+     */
+    synchronized void compact() throws IOException {
+        final long newGeneration = generation + 1;
+        writeSnapshot(newGeneration);
+        generation = newGeneration;
+        createJournal();
+    }
+
+    /**
+     * Compacts the journal if it grew enough.
+     *
+     * @throws IOException if the snapshot or the journal could not be written.
+     */
+    @Override
+    public synchronized void maintain() throws IOException {
+        if (needsCompaction())
+            compact();
+    }
+
+    /**
+     * Closes the journal file.
+     */
+    @Override
+    public synchronized void close() {
+        closeJournalOutput();
+    }
+
+    private boolean startsWithCurrent(byte[] newStars) {
+        for (int i = 0; i < count; i++) {
+            if (stars[i] != newStars[i])
+                return false;
+        }
+        return true;
+    }
+
+    private void appendInMemory(byte[] added, int offset, int length) {
+        if (count + length > stars.length)
+            stars = Arrays.copyOf(stars, Math.max(stars.length * 2, count + length));
+        System.arraycopy(added, offset, stars, count, length);
+        count += length;
+    }
+
+    /**
+     * Applies a replayed record to the stars in memory.
+     *
+     * @return false if the record type is not known.
+     */
+    private boolean applyRecord(byte type, byte[] payload) {
+        switch (type) {
+            case TYPE_ADD:
+            case TYPE_BULK_ADD:
+                appendInMemory(payload, 0, payload.length);
+                return true;
+            case TYPE_RESET:
+                count = 0;
+                return true;
+            case TYPE_REPLACE:
+                count = 0;
+                appendInMemory(payload, 0, payload.length);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void writeRecord(byte type, byte[] payload, int offset, int length) throws IOException {
+        if (isTailDamaged)
+            compact();
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_OVERHEAD + length);
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(type);
+        output.writeInt(length);
+        output.write(payload, offset, length);
+        final CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        output.writeInt((int) crc.getValue());
+        output.flush();
+
+        try {
+            journalOutput.write(bytes.toByteArray());
+            journalOutput.flush();
+            journalOutput.getFD().sync();
+        } catch (IOException e) {
+            discardPartialRecord();
+            throw e;
+        }
+        journalSize += bytes.size();
+    }
+
+    /**
+     * Truncates the journal back to its last complete record after a failed write.
+     * If it cannot be truncated, the journal is replaced before the next write,
+     * since the stars in memory do not contain the failed record either.
+     */
+    private void discardPartialRecord() {
+        try {
+            journalOutput.getChannel().truncate(journalSize);
+        } catch (IOException e) {
+            Log.e(TAG, "discardPartialRecord: Failed to truncate journal, compacting before the next write.", e);
+            isTailDamaged = true;
+        }
+    }
+
+    /**
+     * Loads the snapshot, then replays the journal of the same generation.
+     */
+    private void load() throws IOException {
+        if (snapshotFile.exists()) {
+            try {
+                readSnapshot();
+            } catch (IOException e) {
+                Log.e(TAG, "load: Failed to read snapshot, starting empty.", e);
+                count = 0;
+                generation = 0;
+            }
+        }
+
+        if (journalFile.exists() && replayJournal()) {
+            journalOutput = new FileOutputStream(journalFile, true);
+        } else {
+            createJournal();
+        }
+    }
+
+    private void readSnapshot() throws IOException {
+        try (final DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            if (input.readInt() != SNAPSHOT_MAGIC || input.readByte() != FORMAT_VERSION)
+                throw new IOException("Invalid snapshot header.");
+            final long snapshotGeneration = input.readLong();
+            final int snapshotCount = input.readInt();
+            if (snapshotCount < 0)
+                throw new IOException("Invalid snapshot count: " + snapshotCount);
+            final byte[] snapshotStars = new byte[snapshotCount];
+            input.readFully(snapshotStars);
+            final CRC32 crc = new CRC32();
+            crc.update(snapshotStars);
+            if (input.readInt() != (int) crc.getValue())
+                throw new IOException("Invalid snapshot checksum.");
+
+            generation = snapshotGeneration;
+            count = 0;
+            appendInMemory(snapshotStars, 0, snapshotCount);
+        }
+    }
+
+    /**
+     * Replays the journal, truncating it after the last valid record.
+     *
+     * @return false if the journal does not belong to the snapshot, and should be recreated.
+     */
+    private boolean replayJournal() throws IOException {
+        long validSize = 0;
+        try (final DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(journalFile)))) {
+            if (input.readInt() != JOURNAL_MAGIC || input.readByte() != FORMAT_VERSION
+                    || input.readLong() != generation)
+                return false;
+            validSize = JOURNAL_HEADER_SIZE;
+
+            final long fileSize = journalFile.length();
+            while (true) {
+                final byte type = input.readByte();
+                final int length = input.readInt();
+                if (length < 0 || validSize + RECORD_OVERHEAD + length > fileSize)
+                    break;
+                final byte[] payload = new byte[length];
+                input.readFully(payload);
+                final int checksum = input.readInt();
+
+                final CRC32 crc = new CRC32();
+                crc.update(type);
+                crc.update(length >>> 24);
+                crc.update(length >>> 16);
+                crc.update(length >>> 8);
+                crc.update(length);
+                crc.update(payload);
+                if (checksum != (int) crc.getValue() || !applyRecord(type, payload))
+                    break;
+                validSize += RECORD_OVERHEAD + length;
+            }
+        } catch (EOFException e) {
+            // The last record is incomplete, which is dropped below.
+        }
+
+        if (validSize < JOURNAL_HEADER_SIZE)
+            return false;
+        if (validSize < journalFile.length()) {
+            Log.w(TAG, "replayJournal: Dropping " + (journalFile.length() - validSize)
+                    + " bytes of incomplete records.");
+            try (final RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+                file.setLength(validSize);
+            }
+        }
+        journalSize = validSize;
+        return true;
+    }
+
+    private void writeSnapshot(long snapshotGeneration) throws IOException {
+        final File temporary = new File(snapshotFile.getPath() + ".tmp");
+        try (final FileOutputStream stream = new FileOutputStream(temporary)) {
+            final DataOutputStream output = new DataOutputStream(stream);
+            output.writeInt(SNAPSHOT_MAGIC);
+            output.writeByte(FORMAT_VERSION);
+            output.writeLong(snapshotGeneration);
+            output.writeInt(count);
+            output.write(stars, 0, count);
+            final CRC32 crc = new CRC32();
+            crc.update(stars, 0, count);
+            output.writeInt((int) crc.getValue());
+            output.flush();
+            stream.getFD().sync();
+        }
+        if (!temporary.renameTo(snapshotFile))
+            throw new IOException("Failed to rename snapshot.");
+    }
+
+    /**
+     * Creates an empty journal for the current generation, replacing the existing one.
+     */
+    private void createJournal() throws IOException {
+        closeJournalOutput();
+        final File temporary = new File(journalFile.getPath() + ".tmp");
+        try (final FileOutputStream stream = new FileOutputStream(temporary)) {
+            final DataOutputStream output = new DataOutputStream(stream);
+            output.writeInt(JOURNAL_MAGIC);
+            output.writeByte(FORMAT_VERSION);
+            output.writeLong(generation);
+            output.flush();
+            stream.getFD().sync();
+        }
+        if (!temporary.renameTo(journalFile))
+            throw new IOException("Failed to rename journal.");
+        journalOutput = new FileOutputStream(journalFile, true);
+        journalSize = JOURNAL_HEADER_SIZE;
+        isTailDamaged = false;
+    }
+
+    private void closeJournalOutput() {
+        if (journalOutput != null) {
+            try {
+                journalOutput.close();
+            } catch (IOException e) {
+                Log.e(TAG, "closeJournalOutput: Failed to close journal.", e);
+            }
+            journalOutput = null;
+        }
+    }
+}
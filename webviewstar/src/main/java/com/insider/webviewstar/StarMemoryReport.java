@@ -0,0 +1,93 @@
+package com.insider.webviewstar;
+
+import android.content.ComponentCallbacks2;
+import android.os.Debug;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The report of what the SDK released after the system asked the app to trim its
+ * memory, which can be read via {@link WebViewStarSDK#getLastMemoryReport()}.
+ *
+ * Depending on the trim level, the SDK:
+ *
+ * 1) Writes the pending changes of the stars,
+ * 2) Pauses the WebView, from {@link ComponentCallbacks2#TRIM_MEMORY_UI_HIDDEN},
+ * 3) Releases the star page, from {@link ComponentCallbacks2#TRIM_MEMORY_BACKGROUND},
+ * which is rebuilt once the app goes to foreground, or once a star function is called.
+ *
+ * {@link ComponentCallbacks2#onLowMemory()} is handled as
+ * {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_CRITICAL}, since it is also delivered
+ * while the app is at foreground.
+ *
+ * The heap of the app is measured when the memory is trimmed, and again after a
+ * short delay, so that the WebView had the chance to free the page. The memory of
+ * the WebView renderer is not included, since it runs in its own process on
+ * API 26 and above.
+ */
+public final class StarMemoryReport {
+
+    private final int trimLevel;
+    private final boolean isPagePaused;
+    private final boolean isPageReleased;
+    private final long heapBytesBefore;
+    private final long heapBytesAfter;
+
+    StarMemoryReport(int trimLevel, boolean isPagePaused, boolean isPageReleased,
+                     long heapBytesBefore, long heapBytesAfter) {
+        this.trimLevel = trimLevel;
+        this.isPagePaused = isPagePaused;
+        this.isPageReleased = isPageReleased;
+        this.heapBytesBefore = heapBytesBefore;
+        this.heapBytesAfter = heapBytesAfter;
+    }
+
+    /**
+     * Returns the bytes that are currently used by the Java and the native heaps
+     * of the app process.
+     */
+    static long getHeapBytes() {
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory() + Debug.getNativeHeapAllocatedSize();
+    }
+
+    /**
+     * Returns the level that was passed to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public int getTrimLevel() {
+        return trimLevel;
+    }
+
+    /**
+     * Determines whether the WebView was paused, either on its own
+     * or as a part of releasing the page.
+     */
+    public boolean isPagePaused() {
+        return isPagePaused;
+    }
+
+    /**
+     * Determines whether the star page was released.
+     */
+    public boolean isPageReleased() {
+        return isPageReleased;
+    }
+
+    /**
+     * Returns how many bytes the Java and the native heaps of the app process
+     * shrank by after the memory was trimmed, or 0 if they did not shrink.
+     * The heaps are shared by the whole app, so this is an estimate.
+     */
+    public long getReleasedHeapBytes() {
+        return Math.max(0, heapBytesBefore - heapBytesAfter);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "StarMemoryReport{trimLevel=" + trimLevel
+                + ", pagePaused=" + isPagePaused
+                + ", pageReleased=" + isPageReleased
+                + ", releasedHeapBytes=" + getReleasedHeapBytes() + "}";
+    }
+}
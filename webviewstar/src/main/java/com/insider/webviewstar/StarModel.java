@@ -0,0 +1,300 @@
+package com.insider.webviewstar;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The authoritative in-memory model of the stars, which mirrors the star array
+ * inside the WebView and is the source of the data that {@link StarsPersister} writes.
+ *
+ * The stars are kept as a primitive byte array in the {@link StarCodec} format,
+ * and the current state is published as an immutable {@link Snapshot}, so:
+ *
+ * 1) {@link #getCount()} and {@link #getSnapshot()} are O(1) and lock-free
+ * on any thread, and they never touch the disk or parse any text,
+ * 2) Appending writes the new stars after the ones that are already published, so
+ * the array is only copied when it is full, or when the stars before the end change,
+ * 3) The count of every star code is updated together with the stars, so
+ * {@link Snapshot#getStatistics()} never iterates the stars,
+ * 4) The codec text is only produced when it is requested via {@link Snapshot#encode()}.
+ *
+ * The model is loaded from {@link StarsDataManager} once per process, and
+ * every published snapshot is reported to the {@link Observer}s in order.
+ */
+class StarModel {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int CODE_COUNT = 16;
+
+    private static final Object sLock = new Object();
+
+    private static StarModel INSTANCE;
+
+    private final Object mLock = new Object();
+
+    private final List<Observer> observers = new CopyOnWriteArrayList<>();
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * The lineage of the latest snapshot, which is changed whenever the
+     * stars are changed by anything other than an append.
+     */
+    private int lineage = 0;
+
+    static StarModel getInstance(Context context) {
+        synchronized (sLock) {
+            if (INSTANCE == null)
+                INSTANCE = new StarModel(StarsDataManager.getInstance(context).getStars());
+            return INSTANCE;
+        }
+    }
+
+    @VisibleForTesting
+    StarModel(@NonNull byte[] stars) {
+        snapshot = createSnapshot(stars);
+    }
+
+    /**
+     * Returns the star count.
+     */
+    int getCount() {
+        return snapshot.count;
+    }
+
+    /**
+     * Returns the current state of the stars, which does not change afterwards.
+     */
+    @NonNull
+    Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Adds the observer, which is notified of the changes made afterwards.
+     */
+    void addObserver(@NonNull Observer observer) {
+        observers.add(observer);
+    }
+
+    /**
+     * Removes the observer.
+     */
+    void removeObserver(@NonNull Observer observer) {
+        observers.remove(observer);
+    }
+
+    /**
+     * Appends the stars.
+     *
+     * @param added the bytes of the stars to be added.
+     * @param offset the offset of the first star inside the array.
+     * @param length how many stars should be added.
+     */
+    void append(@NonNull byte[] added, int offset, int length) {
+        if (length == 0)
+            return;
+        synchronized (mLock) {
+            final Snapshot current = snapshot;
+            final int newCount = current.count + length;
+            byte[] stars = current.stars;
+            if (newCount > stars.length)
+                stars = Arrays.copyOf(stars, Math.max(newCount, stars.length * 2));
+            // The published snapshots do not cover the bytes after their count,
+            // so they can be written without copying the array.
+            System.arraycopy(added, offset, stars, current.count, length);
+            final int[] codeCounts = current.codeCounts.clone();
+            countCodes(codeCounts, added, offset, length);
+            publish(new Snapshot(stars, newCount, codeCounts, current.lineage));
+        }
+    }
+
+    /**
+     * Removes all the stars.
+     */
+    void reset() {
+        synchronized (mLock) {
+            if (snapshot.count != 0)
+                publish(createSnapshot(new byte[0]));
+        }
+    }
+
+    /**
+     * Applies a change of the WebView star array, which replaces the stars after
+     * the offset with the given ones. The offset is the star count for an append,
+     * and 0 for a reset.
+     *
+     * @param offset the count of the stars that are kept.
+     * @param added the stars after the offset.
+     * @return false if the offset is beyond the stars, so the change could not be applied.
+     */
+    boolean applyChange(int offset, @NonNull byte[] added) {
+        synchronized (mLock) {
+            final Snapshot current = snapshot;
+            if (offset < 0 || offset > current.count)
+                return false;
+
+            if (offset == current.count) {
+                append(added, 0, added.length);
+            } else if (offset == 0 && added.length == 0) {
+                reset();
+            } else {
+                final byte[] stars = Arrays.copyOf(current.stars, offset + added.length);
+                System.arraycopy(added, 0, stars, offset, added.length);
+                publish(createSnapshot(stars));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Publishes the snapshot, and notifies the observers while holding the
+     * lock, so they receive the changes in order.
+     */
+    private void publish(Snapshot newSnapshot) {
+        final Snapshot previous = snapshot;
+        snapshot = newSnapshot;
+        for (Observer observer : observers)
+            observer.onModelChanged(previous, newSnapshot);
+    }
+
+    /**
+     * Creates the snapshot of a new lineage. Must be called while holding the lock,
+     * except in the constructor.
+     */
+    private Snapshot createSnapshot(byte[] stars) {
+        final int[] codeCounts = new int[CODE_COUNT];
+        countCodes(codeCounts, stars, 0, stars.length);
+        return new Snapshot(Arrays.copyOf(stars, Math.max(INITIAL_CAPACITY, stars.length)),
+                stars.length, codeCounts, ++lineage);
+    }
+
+    private static void countCodes(int[] codeCounts, byte[] stars, int offset, int length) {
+        for (int i = offset; i < offset + length; i++)
+            codeCounts[stars[i] & (CODE_COUNT - 1)]++;
+    }
+
+    /**
+     * The observer of the model changes, which is notified on the thread that made
+     * the change while the model is locked, so it should only record the change.
+     */
+    interface Observer {
+
+        /**
+         * Called after a new snapshot is published.
+         *
+         * @param previous the snapshot before the change.
+         * @param current the snapshot after the change.
+         */
+        void onModelChanged(@NonNull Snapshot previous, @NonNull Snapshot current);
+    }
+
+    /**
+     * The immutable state of the stars at a point in time. The backing array can be
+     * shared with the newer snapshots, but the stars below the count never change.
+     */
+    static final class Snapshot {
+
+        private final byte[] stars;
+        private final int count;
+        private final int[] codeCounts;
+        private final int lineage;
+
+        private String encoded;
+        private StarStatistics statistics;
+
+        private Snapshot(byte[] stars, int count, int[] codeCounts, int lineage) {
+            this.stars = stars;
+            this.count = count;
+            this.codeCounts = codeCounts;
+            this.lineage = lineage;
+        }
+
+        /**
+         * Returns the star count.
+         */
+        int getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the star at the given index, in the {@link StarCodec} format.
+         */
+        byte getStar(int index) {
+            if (index < 0 || index >= count)
+                throw new IndexOutOfBoundsException("Index: " + index + ", count: " + count);
+            return stars[index];
+        }
+
+        /**
+         * Returns a copy of the star bytes.
+         */
+        @NonNull
+        byte[] toArray() {
+            return Arrays.copyOf(stars, count);
+        }
+
+        /**
+         * Returns a copy of the star bytes, starting from the given index.
+         */
+        @NonNull
+        byte[] toArray(int from) {
+            return Arrays.copyOfRange(stars, from, count);
+        }
+
+        /**
+         * Determines whether this snapshot only appended stars to the given one,
+         * so the stars of the given snapshot are the first stars of this one.
+         *
+         * @param older the older snapshot.
+         */
+        boolean isAppendOf(@NonNull Snapshot older) {
+            return lineage == older.lineage && count >= older.count;
+        }
+
+        /**
+         * Returns a range of the stars in the {@link StarCodec} format.
+         *
+         * @param from the index of the first star.
+         * @param to the index after the last star.
+         */
+        @NonNull
+        String encode(int from, int to) {
+            return StarCodec.encode(stars, from, to - from);
+        }
+
+        /**
+         * Returns the stars in the {@link StarCodec} format, which is
+         * produced the first time it is requested.
+         */
+        @NonNull
+        String encode() {
+            String result = encoded;
+            if (result == null) {
+                result = StarCodec.encode(stars, count);
+                encoded = result;
+            }
+            return result;
+        }
+
+        /**
+         * Returns the statistics of the stars, which are created
+         * the first time they are requested.
+         */
+        @NonNull
+        StarStatistics getStatistics() {
+            StarStatistics result = statistics;
+            if (result == null) {
+                result = new StarStatistics(codeCounts);
+                statistics = result;
+            }
+            return result;
+        }
+    }
+}
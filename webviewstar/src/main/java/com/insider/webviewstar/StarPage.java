@@ -0,0 +1,251 @@
+package com.insider.webviewstar;
+
+import android.util.Log;
+import android.webkit.ConsoleMessage;
+import android.webkit.WebChromeClient;
+import android.webkit.WebView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.webkit.ScriptHandler;
+
+/**
+ * The star page inside a WebView, which consists of everything that
+ * {@link WebViewStarSDK} sets up on the WebView:
+ *
+ * 1) The WebView settings and clients,
+ * 2) The {@link StarsManager} JavaScript interface,
+ * 3) The star script, registered at document start if enabled and supported,
+ * 4) The {@link WebViewFunctionManager} that calls the star functions.
+ *
+ * The page is usually created by the SDK itself, but it can also be prepared and
+ * loaded ahead of time by {@link WebViewStarPool}, in which case the SDK takes it
+ * over with the page already loaded. The script is only initialized once the
+ * WebView is attached to window, since the function manager does not run any
+ * task on a detached WebView.
+ *
+ * Under memory pressure, the page can be paused, or released by loading a blank
+ * page instead, which lets the renderer free the star page, see {@link #release()}.
+ * The state of the stars is kept by the {@link StarModel}, so the released page is
+ * rebuilt from it once it is needed again, see {@link #rebuild()}.
+ */
+class StarPage {
+
+    private static final String TAG = StarPage.class.getSimpleName();
+
+    static final String BLANK_URL = "about:blank";
+
+    private final WebView webView;
+    private final WebViewStarConfig config;
+    private final WebViewFunctionManager functionManager;
+    private final StarWebViewClient webViewClient;
+    private final PageLoadedCallback pageLoadedCallback;
+
+    /**
+     * The handler of the document start script, if the script was
+     * injected at document start.
+     */
+    @Nullable
+    private ScriptHandler scriptHandler;
+
+    private boolean isLoaded = false;
+    private boolean isDestroyed = false;
+
+    /**
+     * Whether the WebView was paused by {@link #pause()}, so that a WebView
+     * which is paused by the app itself is not resumed.
+     */
+    private boolean isPaused = false;
+    private boolean isReleased = false;
+
+    /**
+     * Creates the page, and sets it up on the WebView. Should be
+     * called on the main thread, before the URL is loaded.
+     *
+     * @param webView the WebView to set the page up on.
+     * @param config the configuration of the SDK.
+     */
+    StarPage(@NonNull WebView webView, @NonNull WebViewStarConfig config) {
+        this.webView = webView;
+        this.config = config;
+        this.functionManager = new WebViewFunctionManager(webView, config);
+
+        webView.getSettings().setJavaScriptEnabled(true);
+        webView.getSettings().setLoadWithOverviewMode(true);
+        webView.getSettings().setUseWideViewPort(true);
+        final StarsManager starsManager = new StarsManager(webView.getContext().getApplicationContext(),
+                functionManager, config.getMaxStarCount());
+        webView.addJavascriptInterface(starsManager, "starsManager");
+        if (config.isMessagePortTransportEnabled())
+            functionManager.enableMessagePort(WebViewStarSDK.URL, starsManager::onStarsChanged);
+        if (config.isDocumentStartInjectionEnabled())
+            scriptHandler = JavascriptInitializer.injectAtDocumentStart(webView, WebViewStarSDK.URL);
+        final boolean isInjectedAfterLoad = scriptHandler == null;
+        final StarImageCache imageCache = config.isImageCacheEnabled()
+                ? StarImageCache.getInstance(webView.getContext())
+                : null;
+        if (imageCache != null)
+            imageCache.setMaxSizeBytes(config.getImageCacheSizeBytes());
+        pageLoadedCallback = new PageLoadedCallback() {
+            @Override
+            public void onPageLoaded() {
+                if (isInjectedAfterLoad)
+                    JavascriptInitializer.initialize(functionManager);
+            }
+
+            @Override
+            public void onPageLoadFailed(String description) {
+                functionManager.onPageLoadFailed(description);
+            }
+        };
+        functionManager.setPageRebuilder(this::rebuild);
+        webViewClient = new StarWebViewClient(pageLoadedCallback, imageCache, config.isImageDownsamplingEnabled(), getInitialWidth(webView));
+        // The page may be loaded before the WebView is laid out, in which
+        // case the width of the screen is used until it is.
+        webView.addOnLayoutChangeListener((view, left, top, right, bottom,
+                                           oldLeft, oldTop, oldRight, oldBottom) ->
+                webViewClient.setTargetWidth(right - left));
+        webView.setWebViewClient(webViewClient);
+        webView.setWebChromeClient(new WebChromeClient()
+        {
+            @Override
+            public boolean onConsoleMessage(ConsoleMessage consoleMessage) {
+                Log.i(TAG, "onConsoleMessage: " + consoleMessage.message());
+                return true;
+            }
+        });
+    }
+
+    private static int getInitialWidth(WebView webView) {
+        if (webView.getWidth() > 0)
+            return webView.getWidth();
+        return webView.getResources().getDisplayMetrics().widthPixels;
+    }
+
+    @NonNull
+    WebView getWebView() {
+        return webView;
+    }
+
+    /**
+     * Returns the configuration that the page was set up with.
+     */
+    @NonNull
+    WebViewStarConfig getConfig() {
+        return config;
+    }
+
+    @NonNull
+    WebViewFunctionManager getFunctionManager() {
+        return functionManager;
+    }
+
+    /**
+     * Loads the URL, if it was not loaded yet. Called on the main thread.
+     */
+    void load() {
+        if (isLoaded || isDestroyed)
+            return;
+        isLoaded = true;
+        webView.loadUrl(WebViewStarSDK.URL);
+    }
+
+    /**
+     * Determines whether the page was released, and not rebuilt yet.
+     */
+    boolean isReleased() {
+        return isReleased;
+    }
+
+    /**
+     * Pauses the WebView, which stops its timers and animations, while keeping
+     * the page. Called on the main thread when the app goes to background.
+     *
+     * @return true if the WebView was paused.
+     */
+    boolean pause() {
+        if (isPaused || isDestroyed)
+            return false;
+        isPaused = true;
+        webView.onPause();
+        return true;
+    }
+
+    /**
+     * Resumes the WebView if it was paused by {@link #pause()}, and rebuilds the
+     * page if it was released. Called on the main thread when the app goes to
+     * foreground.
+     */
+    void resume() {
+        if (isDestroyed)
+            return;
+        if (isReleased) {
+            rebuild();
+        } else if (isPaused) {
+            isPaused = false;
+            webView.onResume();
+        }
+    }
+
+    /**
+     * Releases the star page by loading a blank page instead, so the renderer can
+     * free it, and pauses the WebView. The calls that were not sent yet are either
+     * applied headlessly or buffered by the function manager, see
+     * {@link WebViewFunctionManager#onPageReleased()}. Called on the main thread.
+     *
+     * @return true if the page was released.
+     */
+    boolean release() {
+        if (isReleased || isDestroyed || !isLoaded)
+            return false;
+        isReleased = true;
+        functionManager.onPageReleased();
+        pause();
+        webView.loadUrl(BLANK_URL);
+        return true;
+    }
+
+    /**
+     * Loads the released page again, after which the function manager restores
+     * the state of the stars into it. Called on the main thread, once the app goes
+     * to foreground, or once a star function is called.
+     *
+     * If called while the page is not released, it has no effect.
+     */
+    void rebuild() {
+        if (!isReleased || isDestroyed)
+            return;
+        isReleased = false;
+        Log.d(TAG, "rebuild: Loading the released star page again.");
+        if (isPaused) {
+            isPaused = false;
+            webView.onResume();
+        }
+        webViewClient.setCallback(pageLoadedCallback);
+        functionManager.onPageRebuilt();
+        webView.loadUrl(WebViewStarSDK.URL);
+        functionManager.startPageLoadTimeout();
+    }
+
+    /**
+     * Removes the page from the WebView, and blanks it.
+     *
+     * If called multiple times, it has no effect.
+     */
+    void destroy() {
+        if (isDestroyed)
+            return;
+
+        isDestroyed = true;
+        webViewClient.onDestroy();
+        functionManager.onDestroy();
+        if (scriptHandler != null) {
+            scriptHandler.remove();
+            scriptHandler = null;
+        }
+        webView.setWebViewClient(null);
+        webView.setWebChromeClient(null);
+        webView.removeJavascriptInterface("starsManager");
+        webView.loadUrl(BLANK_URL);
+    }
+}
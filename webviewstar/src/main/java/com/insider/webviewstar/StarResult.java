@@ -0,0 +1,169 @@
+package com.insider.webviewstar;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The result of a star operation, such as {@link WebViewStarSDK#addSmallStar()},
+ * which is delivered through a {@link StarFuture} once the operation is applied.
+ *
+ * The operation succeeded if {@link #isSuccess()} returns true, otherwise
+ * {@link #getFailureReason()} tells why some or all of the stars were not added.
+ *
+ * The counts are the ones returned by the star script, which the headless engine
+ * of the SDK returns too when there is no live WebView. If a {@link StarTransaction}
+ * resets the stars, its operations before the reset are not visible afterwards, so
+ * the requested and added counts only cover the operations after the reset.
+ */
+public final class StarResult {
+
+    /**
+     * The reason why an operation did not fully succeed.
+     */
+    public enum FailureReason {
+
+        /**
+         * The sky got full, so only {@link StarResult#getAddedCount()} of the
+         * requested stars were added.
+         */
+        SKY_FULL,
+
+        /**
+         * The stars of a {@link StarTransaction} with
+         * {@link StarTransaction.OverflowPolicy#REJECT} did not fit into the sky,
+         * so none of its operations were applied.
+         */
+        REJECTED,
+
+        /**
+         * The operation was made before the WebView was initialized, and a reset
+         * that was made afterwards replaced it, so it was never applied.
+         */
+        SUPERSEDED,
+
+        /**
+         * The SDK was destroyed before the operation was applied, and the headless
+         * fallback is disabled, see {@link WebViewStarConfig#isHeadlessFallbackEnabled()}.
+         */
+        DESTROYED,
+
+        /**
+         * The star script failed to apply the operation, or did not return a result.
+         */
+        SCRIPT_ERROR
+    }
+
+    private final int addedCount;
+    private final int requestedCount;
+    private final int starCount;
+
+    @Nullable
+    private final FailureReason failureReason;
+
+    private StarResult(int addedCount, int requestedCount, int starCount,
+                       @Nullable FailureReason failureReason) {
+        this.addedCount = addedCount;
+        this.requestedCount = requestedCount;
+        this.starCount = starCount;
+        this.failureReason = failureReason;
+    }
+
+    /**
+     * Creates the result of an operation that did not request any star.
+     */
+    @NonNull
+    static StarResult success(int starCount) {
+        return new StarResult(0, 0, starCount, null);
+    }
+
+    /**
+     * Creates the result of a failure without a count.
+     */
+    @NonNull
+    static StarResult failure(@NonNull FailureReason reason) {
+        return new StarResult(0, 0, -1, reason);
+    }
+
+    /**
+     * Creates the result from the JSON representation of the value returned by the
+     * star script, such as {"added":1,"requested":1,"count":5,"rejected":false}.
+     *
+     * @param json the JSON representation, or "null" if there is no result.
+     * @return the result.
+     */
+    @NonNull
+    static StarResult fromJson(@Nullable String json) {
+        if (JavascriptCommand.RESULT_SUPERSEDED.equals(json))
+            return failure(FailureReason.SUPERSEDED);
+        if (JavascriptCommand.RESULT_DESTROYED.equals(json))
+            return failure(FailureReason.DESTROYED);
+        if (json == null || json.isEmpty() || "null".equals(json))
+            return failure(FailureReason.SCRIPT_ERROR);
+
+        try {
+            final JSONObject object = new JSONObject(json);
+            final int added = object.getInt("added");
+            final int requested = object.getInt("requested");
+            final FailureReason reason;
+            if (object.optBoolean("rejected"))
+                reason = FailureReason.REJECTED;
+            else if (added < requested)
+                reason = FailureReason.SKY_FULL;
+            else
+                reason = null;
+            return new StarResult(added, requested, object.getInt("count"), reason);
+        } catch (JSONException e) {
+            return failure(FailureReason.SCRIPT_ERROR);
+        }
+    }
+
+    /**
+     * Determines whether all the requested stars were added, or the stars were reset.
+     */
+    public boolean isSuccess() {
+        return failureReason == null;
+    }
+
+    /**
+     * Returns the reason why the operation did not fully succeed, or
+     * null if it succeeded.
+     */
+    @Nullable
+    public FailureReason getFailureReason() {
+        return failureReason;
+    }
+
+    /**
+     * Returns how many stars were added by the operation, after its reset if it has one.
+     */
+    public int getAddedCount() {
+        return addedCount;
+    }
+
+    /**
+     * Returns how many stars the operation requested to add, after its reset if it has one.
+     */
+    public int getRequestedCount() {
+        return requestedCount;
+    }
+
+    /**
+     * Returns the star count after the operation was applied, or -1
+     * if the operation was not applied by the star script.
+     */
+    public int getStarCount() {
+        return starCount;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "StarResult{added=" + addedCount
+                + ", requested=" + requestedCount
+                + ", count=" + starCount
+                + ", failureReason=" + failureReason + "}";
+    }
+}
@@ -0,0 +1,148 @@
+package com.insider.webviewstar;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The process-wide cache of the star scripts that are injected into the WebView.
+ *
+ * The script itself is embedded at build time as {@link StarScript#SOURCE} by the
+ * "generateStarScript" Gradle task, so nothing is read from the assets. The scripts
+ * that are derived from it (such as the document start script) are built only once
+ * per process and shared by every SDK instance.
+ *
+ * The version of the script is derived from its content, the same way the Gradle task
+ * derives {@link StarScript#VERSION}: the SDK version, followed by the beginning of the
+ * SHA-256 hash of the minified script. The page reports the version that is defined
+ * inside the script that is running, which can be checked using {@link #isCurrentVersion(String)},
+ * so that a script whose content does not match its version, such as a stale generated
+ * class, or a script from another SDK build, is never used.
+ */
+class StarScriptCache {
+
+    private static final String TAG = StarScriptCache.class.getSimpleName();
+
+    /**
+     * How many hex digits of the content hash are in the version.
+     */
+    private static final int HASH_LENGTH = 12;
+
+    /**
+     * The statement appended to the document start script, so that the
+     * Java side knows when the functions are available in the new document.
+     */
+    private static final String READY_STATEMENT = "\nstarsManager.onScriptReady(starScriptVersion);";
+
+    private static volatile Entry sEntry;
+
+    /**
+     * The version that is derived from the embedded script, which is computed once.
+     */
+    private static volatile String sContentVersion;
+
+    private StarScriptCache() {}
+
+    /**
+     * Returns the script that is evaluated after the page is loaded.
+     */
+    @NonNull
+    static String getPageLoadScript() {
+        return getEntry().pageLoadScript;
+    }
+
+    /**
+     * Returns the script that is registered to be run at document start,
+     * which also notifies {@link StarsManager#onScriptReady(String)}.
+     */
+    @NonNull
+    static String getDocumentStartScript() {
+        return getEntry().documentStartScript;
+    }
+
+    /**
+     * Determines whether the version reported by the page is the version that
+     * is derived from the content of the script embedded into this SDK build.
+     *
+     * @param version the version reported by the page.
+     * @return if the version matches.
+     */
+    static boolean isCurrentVersion(@Nullable String version) {
+        return getContentVersion().equals(version);
+    }
+
+    /**
+     * Returns the version that is derived from the content of the embedded script.
+     * If it differs from {@link StarScript#VERSION}, the generated class is stale,
+     * so the page never reports a matching version.
+     */
+    @NonNull
+    static String getContentVersion() {
+        String version = sContentVersion;
+        if (version == null) {
+            version = deriveVersion(StarScript.VERSION, StarScript.SOURCE);
+            if (!version.equals(StarScript.VERSION))
+                Log.e(TAG, "getContentVersion: Script content " + version + " does not match " + StarScript.VERSION);
+            sContentVersion = version;
+        }
+        return version;
+    }
+
+    /**
+     * Derives the version of the given script from its content, the same way
+     * the "generateStarScript" task does.
+     *
+     * @param declaredVersion the version that the script declares, whose SDK version is kept.
+     * @param source the script, starting with the declaration of its version.
+     * @return the SDK version, followed by the beginning of the hash of the minified script.
+     */
+    @VisibleForTesting
+    @NonNull
+    static String deriveVersion(@NonNull String declaredVersion, @NonNull String source) {
+        final int separator = declaredVersion.lastIndexOf('-');
+        final String sdkVersion = separator < 0 ? declaredVersion : declaredVersion.substring(0, separator);
+        // The declaration of the version is prepended after the hash is computed.
+        final String minified = source.substring(source.indexOf('\n') + 1);
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(minified.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        final StringBuilder builder = new StringBuilder(sdkVersion).append('-');
+        for (int i = 0; i < HASH_LENGTH / 2; i++)
+            builder.append(Character.forDigit((digest[i] >> 4) & 0xF, 16))
+                    .append(Character.forDigit(digest[i] & 0xF, 16));
+        return builder.toString();
+    }
+
+    @NonNull
+    private static Entry getEntry() {
+        Entry entry = sEntry;
+        if (entry == null) {
+            entry = new Entry(StarScript.SOURCE);
+            sEntry = entry;
+        }
+        return entry;
+    }
+
+    /**
+     * The scripts that are built from the star script.
+     */
+    private static class Entry {
+
+        private final String pageLoadScript;
+        private final String documentStartScript;
+
+        private Entry(String source) {
+            this.pageLoadScript = source;
+            this.documentStartScript = source + READY_STATEMENT;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.insider.webviewstar;
+
+import android.content.Context;
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The process-wide hub that keeps the pages of the live SDK instances in sync
+ * with the shared {@link StarModel}, which is saved once by {@link StarsPersister}
+ * however many pages there are.
+ *
+ * While a single page is attached, it applies the star calls itself, and the hub
+ * has nothing to send. Once more pages are attached, the stars are shared, see
+ * {@link #isShared()}, so the calls are applied once to the model instead, and
+ * the hub sends every change to the pages:
+ *
+ * 1) The hub observes the model once, rather than once per page, and only records
+ * the snapshot before the first change of a burst on the thread that made it,
+ * 2) The changes that are made until the main thread runs the sync are merged into
+ * a single diff, which is encoded into the same commands for every page,
+ * 3) A page that is not live, such as a detached, released or headless page, does
+ * not receive anything, since the model is restored into it once it is live again,
+ * see {@link WebViewFunctionManager#sync(List)}.
+ *
+ * A change that was reported by a page is not sent back to it, unless it was merged
+ * with the changes of the others, in which case the page receives the same stars.
+ */
+class StarStateHub implements StarModel.Observer {
+
+    private static final Object sLock = new Object();
+    private static StarStateHub INSTANCE;
+
+    /**
+     * The page whose change is being applied to the model on the current
+     * thread, see {@link #applyPageChange(WebViewFunctionManager, int, byte[])}.
+     */
+    private static final ThreadLocal<WebViewFunctionManager> sOrigin = new ThreadLocal<>();
+
+    private final Object mLock = new Object();
+    private final Handler mainHandler = StarExecutors.getMainHandler();
+    private final Runnable syncTask = this::sync;
+    private final List<WebViewFunctionManager> pages = new CopyOnWriteArrayList<>();
+    private final StarModel model;
+
+    private volatile int pageCount = 0;
+
+    /**
+     * The snapshot before the first change that was not sent yet, or null
+     * if the sync is not scheduled.
+     */
+    @Nullable
+    private StarModel.Snapshot pendingFrom;
+
+    /**
+     * The page that reported all the changes that were not sent yet, or null
+     * if they were made by the others, or by more than a single page.
+     */
+    @Nullable
+    private WebViewFunctionManager pendingOrigin;
+
+    private StarStateHub(@NonNull Context context) {
+        this(StarModel.getInstance(context));
+    }
+
+    @VisibleForTesting
+    StarStateHub(@NonNull StarModel model) {
+        this.model = model;
+    }
+
+    static StarStateHub getInstance(@NonNull Context context) {
+        synchronized (sLock) {
+            if (INSTANCE == null)
+                INSTANCE = new StarStateHub(context.getApplicationContext());
+            return INSTANCE;
+        }
+    }
+
+    /**
+     * Determines whether the stars are shared by more than a single page,
+     * in which case the star calls should be applied to the model.
+     */
+    boolean isShared() {
+        return pageCount > 1;
+    }
+
+    /**
+     * Attaches the page of an SDK instance, which receives the changes
+     * while the stars are shared. Called on the main thread.
+     */
+    void attach(@NonNull WebViewFunctionManager page) {
+        if (pages.contains(page))
+            return;
+        pages.add(page);
+        pageCount = pages.size();
+        if (pageCount == 1)
+            model.addObserver(this);
+    }
+
+    /**
+     * Detaches the page, after which the model is not observed if no page
+     * is attached. Called on the main thread.
+     */
+    void detach(@NonNull WebViewFunctionManager page) {
+        if (!pages.remove(page))
+            return;
+        pageCount = pages.size();
+        if (pageCount == 0)
+            model.removeObserver(this);
+    }
+
+    /**
+     * Applies a change that was reported by the given page to the model, so that
+     * it is not sent back to the page.
+     *
+     * @param origin the page that reported the change.
+     * @param offset the count of the stars that are kept.
+     * @param added the stars after the offset.
+     * @return false if the offset is beyond the stars, see {@link StarModel#applyChange(int, byte[])}.
+     */
+    boolean applyPageChange(@NonNull WebViewFunctionManager origin, int offset, @NonNull byte[] added) {
+        sOrigin.set(origin);
+        try {
+            return model.applyChange(offset, added);
+        } finally {
+            sOrigin.remove();
+        }
+    }
+
+    @Override
+    public void onModelChanged(@NonNull StarModel.Snapshot previous,
+                               @NonNull StarModel.Snapshot current) {
+        final WebViewFunctionManager origin = sOrigin.get();
+        synchronized (mLock) {
+            if (pendingFrom == null) {
+                pendingFrom = previous;
+                pendingOrigin = origin;
+                mainHandler.post(syncTask);
+            } else if (pendingOrigin != origin) {
+                pendingOrigin = null;
+            }
+        }
+    }
+
+    /**
+     * Sends the changes that were made since the last sync to the pages,
+     * except to the page that reported them. Called on the main thread.
+     */
+    private void sync() {
+        final StarModel.Snapshot from;
+        final WebViewFunctionManager origin;
+        synchronized (mLock) {
+            from = pendingFrom;
+            origin = pendingOrigin;
+            pendingFrom = null;
+            pendingOrigin = null;
+        }
+        if (from == null || (pageCount < 2 && origin != null))
+            return;
+
+        final List<JavascriptCommand> commands = createSyncCommands(from, model.getSnapshot());
+        if (commands.isEmpty())
+            return;
+        for (WebViewFunctionManager page : pages) {
+            if (page != origin)
+                page.sync(commands);
+        }
+    }
+
+    /**
+     * Creates the commands that change the stars of the older snapshot into the
+     * stars of the newer one, in the same format as the changes that the script
+     * reports: the stars after the offset are replaced with the given stars. A large
+     * change is sent in chunks of {@link StarsManager#RESTORE_CHUNK_SIZE} stars.
+     */
+    @NonNull
+    private static List<JavascriptCommand> createSyncCommands(@NonNull StarModel.Snapshot from,
+                                                              @NonNull StarModel.Snapshot to) {
+        final List<JavascriptCommand> commands = new ArrayList<>();
+        if (from == to)
+            return commands;
+
+        final int offset = to.isAppendOf(from) ? from.getCount() : 0;
+        final int count = to.getCount();
+        if (offset == count && offset != 0)
+            return commands;
+        int start = offset;
+        do {
+            final int end = Math.min(count, start + StarsManager.RESTORE_CHUNK_SIZE);
+            commands.add(start == offset
+                    ? new JavascriptCommand("syncStars", offset + ";" + to.encode(start, end), null)
+                    : new JavascriptCommand("loadStars", to.encode(start, end), null));
+            start = end;
+        } while (start < count);
+        return commands;
+    }
+}
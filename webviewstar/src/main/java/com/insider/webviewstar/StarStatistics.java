@@ -0,0 +1,114 @@
+package com.insider.webviewstar;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The aggregate statistics of the stars at a point in time, which can be
+ * read via {@link WebViewStarSDK#getStatistics()}.
+ *
+ * The statistics are built from the counters that are updated on every change,
+ * so reading them does not iterate the stars, and does not need the WebView.
+ * The statistics are immutable, so they do not change after the stars change.
+ */
+public final class StarStatistics {
+
+    private final int totalCount;
+    private final int bigCount;
+    private final int brightCount;
+    private final int[] smallColorCounts = new int[StarCodec.SMALL_COLORS.length];
+    private final int[] bigColorCounts = new int[StarCodec.BIG_COLORS.length];
+
+    /**
+     * Creates the statistics.
+     *
+     * @param codeCounts the count of the stars for every star byte,
+     *                   see {@link StarCodec}.
+     */
+    StarStatistics(@NonNull int[] codeCounts) {
+        int total = 0;
+        int big = 0;
+        int bright = 0;
+        for (int code = 0; code < codeCounts.length; code++) {
+            final int count = codeCounts[code];
+            if (count == 0)
+                continue;
+            final int colorIndex = (code & StarCodec.COLOR_MASK) >> StarCodec.COLOR_SHIFT;
+            final boolean isBig = (code & StarCodec.SIZE_MASK) != 0;
+            final int[] colorCounts = isBig ? bigColorCounts : smallColorCounts;
+            if (colorIndex < colorCounts.length)
+                colorCounts[colorIndex] += count;
+            if (isBig)
+                big += count;
+            if ((code & StarCodec.BRIGHTNESS_MASK) == 0)
+                bright += count;
+            total += count;
+        }
+        this.totalCount = total;
+        this.bigCount = big;
+        this.brightCount = bright;
+    }
+
+    /**
+     * Returns the count of all the stars.
+     */
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Returns the count of the small stars.
+     */
+    public int getSmallCount() {
+        return totalCount - bigCount;
+    }
+
+    /**
+     * Returns the count of the big stars.
+     */
+    public int getBigCount() {
+        return bigCount;
+    }
+
+    /**
+     * Returns the count of the stars with the "Bright" brightness.
+     */
+    public int getBrightCount() {
+        return brightCount;
+    }
+
+    /**
+     * Returns the count of the stars with the "Not so much" brightness.
+     */
+    public int getNotBrightCount() {
+        return totalCount - brightCount;
+    }
+
+    /**
+     * Returns the count of the stars with the given color. The small stars are
+     * "Red", "Blue" or "Green", and the big stars are "Yellow", "Purple" or "Gray".
+     *
+     * @param color the name of the color.
+     * @return the count of the stars, or 0 if the color is not known.
+     */
+    public int getColorCount(@NonNull String color) {
+        for (int i = 0; i < StarCodec.SMALL_COLORS.length; i++) {
+            if (StarCodec.SMALL_COLORS[i].equals(color))
+                return smallColorCounts[i];
+        }
+        for (int i = 0; i < StarCodec.BIG_COLORS.length; i++) {
+            if (StarCodec.BIG_COLORS[i].equals(color))
+                return bigColorCounts[i];
+        }
+        return 0;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "StarStatistics{total=" + totalCount
+                + ", small=" + getSmallCount()
+                + ", big=" + bigCount
+                + ", bright=" + brightCount
+                + ", notBright=" + getNotBrightCount() + "}";
+    }
+}
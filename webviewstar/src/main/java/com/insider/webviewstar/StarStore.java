@@ -0,0 +1,69 @@
+package com.insider.webviewstar;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * The storage of the stars behind {@link StarsDataManager}. The backend is selected
+ * via {@link WebViewStarConfig.Builder#setStoreType(WebViewStarConfig.StoreType)}:
+ *
+ * 1) {@link PreferencesStarStore} keeps the stars inside the "app_stars" preferences,
+ * 2) {@link StarJournal} appends the changes to a journal file and compacts them,
+ * 3) {@link MappedStarStore} keeps the stars as fixed-size records of a memory-mapped file.
+ *
+ * Every star is a single byte in the {@link StarCodec} format. The implementations
+ * must be thread safe, and they must pass the contract defined by "StarStoreContractTest".
+ * The writes can touch the disk, so they should be called on a background thread.
+ */
+interface StarStore {
+
+    /**
+     * Returns the star count.
+     */
+    int getCount();
+
+    /**
+     * Returns a copy of the star bytes.
+     */
+    @NonNull
+    byte[] getStars();
+
+    /**
+     * Appends the stars.
+     *
+     * @param stars the bytes of the stars to be added.
+     * @param offset the offset of the first star inside the array.
+     * @param length how many stars should be added.
+     * @throws IOException if the stars could not be written.
+     */
+    void append(@NonNull byte[] stars, int offset, int length) throws IOException;
+
+    /**
+     * Removes all the stars.
+     *
+     * @throws IOException if the change could not be written.
+     */
+    void reset() throws IOException;
+
+    /**
+     * Replaces all the stars with the given ones.
+     *
+     * @param stars the new stars.
+     * @throws IOException if the stars could not be written.
+     */
+    void replace(@NonNull byte[] stars) throws IOException;
+
+    /**
+     * Performs the maintenance of the backend, such as compaction, if it is needed.
+     * Called on the background thread after the writes.
+     *
+     * @throws IOException if the maintenance failed.
+     */
+    default void maintain() throws IOException {}
+
+    /**
+     * Releases the resources of the backend. The store should not be used afterwards.
+     */
+    void close();
+}
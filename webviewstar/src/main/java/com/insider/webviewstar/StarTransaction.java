@@ -0,0 +1,191 @@
+package com.insider.webviewstar;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A list of star operations that is applied to the WebView as a single change
+ * via {@link WebViewStarSDK#apply(StarTransaction)}, so that:
+ *
+ * 1) The operations are sent in a single script evaluation,
+ * 2) The SDK is notified of the change once, and the change is saved with a single write,
+ * 3) The capacity of the sky is checked against the whole transaction, and the
+ * {@link OverflowPolicy} determines what happens if the stars do not fit.
+ *
+ * The transaction is immutable, and should be created using the {@link Builder}.
+ * A reset discards the operations added before it, since their result
+ * would not be visible after the transaction.
+ */
+public final class StarTransaction {
+
+    private final List<String> operations;
+    private final OverflowPolicy overflowPolicy;
+
+    private StarTransaction(@NonNull Builder builder) {
+        this.operations = new ArrayList<>(builder.operations);
+        this.overflowPolicy = builder.overflowPolicy;
+    }
+
+    /**
+     * Returns the policy that determines what happens if the stars do not fit.
+     */
+    @NonNull
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Determines whether the transaction does not contain any operation.
+     */
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    /**
+     * Returns the argument of the "applyStarOperations" function inside the star
+     * script, such as "reject|R,S3,B2", where "R" resets the stars, and "S" and "B"
+     * add the given count of small and big stars.
+     */
+    @NonNull
+    String toArgument() {
+        final StringBuilder builder = new StringBuilder()
+                .append(overflowPolicy == OverflowPolicy.REJECT ? "reject" : "partial")
+                .append('|');
+        for (int i = 0; i < operations.size(); i++) {
+            if (i > 0)
+                builder.append(',');
+            builder.append(operations.get(i));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * The policy that determines what happens if the stars of a
+     * transaction do not fit into the sky.
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * The operations are applied in order until the sky is full,
+         * and the rest of the stars are dropped.
+         */
+        PARTIAL,
+
+        /**
+         * None of the operations are applied.
+         */
+        REJECT
+    }
+
+    /**
+     * The builder for {@link StarTransaction}.
+     */
+    public static class Builder {
+
+        private static final String RESET = "R";
+        private static final char SMALL = 'S';
+        private static final char BIG = 'B';
+
+        private final List<String> operations = new ArrayList<>();
+        private OverflowPolicy overflowPolicy = OverflowPolicy.PARTIAL;
+
+        /**
+         * Adds a small star.
+         *
+         * @return this builder.
+         */
+        @NonNull
+        public Builder addSmallStar() {
+            return addSmallStars(1);
+        }
+
+        /**
+         * Adds a big star.
+         *
+         * @return this builder.
+         */
+        @NonNull
+        public Builder addBigStar() {
+            return addBigStars(1);
+        }
+
+        /**
+         * Adds the given count of small stars.
+         *
+         * @param count the star count, must not be negative.
+         * @return this builder.
+         */
+        @NonNull
+        public Builder addSmallStars(int count) {
+            return addStars(SMALL, count);
+        }
+
+        /**
+         * Adds the given count of big stars.
+         *
+         * @param count the star count, must not be negative.
+         * @return this builder.
+         */
+        @NonNull
+        public Builder addBigStars(int count) {
+            return addStars(BIG, count);
+        }
+
+        /**
+         * Resets the stars, discarding the operations that were added before.
+         *
+         * @return this builder.
+         */
+        @NonNull
+        public Builder reset() {
+            operations.clear();
+            operations.add(RESET);
+            return this;
+        }
+
+        /**
+         * Sets the policy that determines what happens if the stars do not fit
+         * into the sky. {@link OverflowPolicy#PARTIAL} by default.
+         *
+         * @param policy the overflow policy.
+         * @return this builder.
+         */
+        @NonNull
+        public Builder setOverflowPolicy(@NonNull OverflowPolicy policy) {
+            this.overflowPolicy = policy;
+            return this;
+        }
+
+        /**
+         * Builds the transaction.
+         *
+         * @return the transaction.
+         */
+        @NonNull
+        public StarTransaction build() {
+            return new StarTransaction(this);
+        }
+
+        /**
+         * Adds the stars, merging them into the last operation if
+         * it adds the stars of the same size.
+         */
+        private Builder addStars(char size, int count) {
+            if (count < 0)
+                throw new IllegalArgumentException("Star count cannot be negative: " + count);
+            if (count == 0)
+                return this;
+
+            final int last = operations.size() - 1;
+            if (last >= 0 && operations.get(last).charAt(0) == size) {
+                final long merged = Long.parseLong(operations.get(last).substring(1)) + count;
+                operations.set(last, size + String.valueOf(Math.min(merged, Integer.MAX_VALUE)));
+            } else {
+                operations.add(size + String.valueOf(count));
+            }
+            return this;
+        }
+    }
+}
@@ -1,32 +1,97 @@
 package com.insider.webviewstar;
 
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
 
 /**
  * The WebView client that will be used for the WebView passed to
  * {@link WebViewStarSDK}. It is responsible for calling the {@link #callback}
- * once the page is successfully loaded.
+ * once the page is successfully loaded, or once it fails to load.
+ *
+ * The success will be triggered on the compute lane of {@link StarExecutors},
+ * and the failure on the main thread. After a failure,
+ * the success is not triggered for the error page that is loaded instead.
+ * The callback is only called for a single load, and it can be set again
+ * for the next one using {@link #setCallback(PageLoadedCallback)}.
  *
- * The callback will be triggered using a single thread executor, on
- * background thread.
+ * If an image cache is given, the request of the star image is served from
+ * the {@link StarImageCache}, downsampled to the {@link #targetWidth} if enabled.
  */
 class StarWebViewClient extends WebViewClient {
 
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
     private final Object mLock = new Object();
 
+    @Nullable
     private PageLoadedCallback callback;
 
-    StarWebViewClient(PageLoadedCallback callback) {
+    @Nullable
+    private final StarImageCache imageCache;
+    private final boolean isDownsamplingEnabled;
+
+    /**
+     * The width in pixels that the image is downsampled to,
+     * which is updated on the main thread as the WebView is laid out.
+     */
+    private volatile int targetWidth;
+
+    StarWebViewClient(@NonNull PageLoadedCallback callback, @Nullable StarImageCache imageCache,
+                      boolean isDownsamplingEnabled, int targetWidth) {
         this.callback = callback;
+        this.imageCache = imageCache;
+        this.isDownsamplingEnabled = isDownsamplingEnabled;
+        this.targetWidth = targetWidth;
+    }
+
+    /**
+     * Sets the callback of the next page load, such as when the released
+     * page is loaded again, see {@link StarPage#rebuild()}.
+     */
+    void setCallback(@NonNull PageLoadedCallback callback) {
+        synchronized (mLock) {
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Sets the width in pixels that the image is downsampled to. A change only
+     * affects the next load, since the image is served once per load.
+     */
+    void setTargetWidth(int targetWidth) {
+        if (targetWidth > 0)
+            this.targetWidth = targetWidth;
+    }
+
+    /**
+     * Serves the star image from the cache, if the cache is enabled. Called on
+     * an IO thread of the WebView, so the cache can block while it downloads the
+     * image. If the image is neither cached nor can be downloaded, the WebView
+     * loads it itself, and reports the failure if it cannot either.
+     */
+    @Nullable
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        if (imageCache == null
+                || !"GET".equals(request.getMethod())
+                || !WebViewStarSDK.URL.equals(request.getUrl().toString()))
+            return super.shouldInterceptRequest(view, request);
+
+        final StarImageCache.Image image = imageCache.get(WebViewStarSDK.URL,
+                isDownsamplingEnabled ? targetWidth : 0);
+        if (image == null)
+            return super.shouldInterceptRequest(view, request);
+        return new WebResourceResponse(image.mimeType, null, new ByteArrayInputStream(image.data));
     }
 
     /**
-     * Called when the provided URL is successfully loaded.
+     * Called when the provided URL is successfully loaded. The blank page
+     * that replaces the released page is ignored, see {@link StarPage#release()}.
      *
      * @param view the web view itself
      * @param url the URL that was loaded.
@@ -34,7 +99,9 @@ class StarWebViewClient extends WebViewClient {
     @Override
     public void onPageFinished(WebView view, String url) {
         super.onPageFinished(view, url);
-        executor.execute(() -> {
+        if (StarPage.BLANK_URL.equals(url))
+            return;
+        StarExecutors.compute().execute(() -> {
             synchronized (mLock) {
                 if (callback != null)  {
                     callback.onPageLoaded();
@@ -45,11 +112,28 @@ class StarWebViewClient extends WebViewClient {
     }
 
     /**
-     * Destroys the executor and nullifies the callback.
+     * Called when the main frame could not be loaded. On API 23 and above, the
+     * default implementation of the newer method only calls this one for the main
+     * frame, so the errors of the sub resources are not reported.
+     */
+    @SuppressWarnings("deprecation")
+    @Override
+    public void onReceivedError(WebView view, int errorCode, String description, String failingUrl) {
+        super.onReceivedError(view, errorCode, description, failingUrl);
+        final PageLoadedCallback failedCallback;
+        synchronized (mLock) {
+            failedCallback = callback;
+            callback = null;
+        }
+        if (failedCallback != null)
+            failedCallback.onPageLoadFailed(errorCode + " " + description);
+    }
+
+    /**
+     * Nullifies the callback.
      */
     void onDestroy()
     {
-        executor.shutdown();
         synchronized (mLock) {
             callback = null;
         }
@@ -9,23 +9,71 @@ import androidx.work.WorkManager;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
- * The worker that cleans the stars from the cache, or from the existing
- * attached WebView, whichever is available.
+ * The worker that cleans the stars from the store, and from the existing
+ * attached WebViews, which are notified of the reset by the {@link StarStateHub}.
  *
- * If the WebView is currently available, the worker will clean
- * the stars inside the WebView JavaScript, allowing the Javascript
- * Interface at {@link StarsManager} to be called, which will
- * clean the shared preferences accordingly.
+ * The stars are usually cleared directly by {@link #clearStars(Context, Runnable)}
+ * on the IO lane of the SDK, which is called by the "Delete Stars" action of
+ * the notification. The worker is only enqueued as a fallback if the store could
+ * not be written, and it is retried by the WorkManager until the store is cleared.
  */
 public class StarsCleanerWorker extends Worker {
 
     private static final String TAG = StarsCleanerWorker.class.getSimpleName();
 
+    /**
+     * How long the worker waits for the store to be cleared before it retries.
+     */
+    private static final long CLEAR_TIMEOUT_SECONDS = 10;
+
     public StarsCleanerWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
         super(context, workerParams);
     }
 
+    /**
+     * Clears the stars without the WorkManager, and cancels the notification. The
+     * store is cleared on the IO lane of the SDK, and the live WebViews are
+     * notified of the reset. If the store could not be written, a worker is created
+     * to retry it.
+     *
+     * Nothing is done on the calling thread, which is usually the main thread of a
+     * cold process started by the notification, where the store would be opened
+     * and the stars read to create the {@link StarsPersister}.
+     *
+     * @param context is any context.
+     * @param onFinished called on the IO lane once the store is cleared,
+     *                   or the worker is created, such as to finish a
+     *                   {@link android.content.BroadcastReceiver.PendingResult}.
+     */
+    public static void clearStars(Context context, Runnable onFinished) {
+        final Context applicationContext = context.getApplicationContext();
+        StarExecutors.io().execute(() -> {
+            // Delete the notification first to prevent multiple clicks.
+            StarsNotificationPoster.cancelNotification(applicationContext);
+            final StarsPersister persister;
+            try {
+                persister = StarsPersister.getInstance(applicationContext);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "clearStars: Failed to open the store, retrying with a worker.", e);
+                createWorker(applicationContext);
+                onFinished.run();
+                return;
+            }
+            persister.clearData(isWritten -> {
+                if (!isWritten) {
+                    Log.w(TAG, "clearStars: Failed to clear the store, retrying with a worker.");
+                    createWorker(applicationContext);
+                }
+                onFinished.run();
+            });
+        });
+    }
+
     /**
      * Creates a worker that will be executed at the first available time
      * (usually instantly.)
@@ -45,23 +93,22 @@ public class StarsCleanerWorker extends Worker {
     @NonNull
     @Override
     public Result doWork() {
-        // Get the current SDK. If the WebView is not attached
-        // to window at that moment, then this SDK will be null or
-        // destroyed.
-        final WebViewStarSDK sdk = WebViewStarSDK.getInstance();
-        if (sdk != null && !sdk.isDestroyed()) {
-            // Reset the current WebView state (also shared preferences)
-            sdk.reset();
-        }
-        else {
-            // Clear shared preferences data.
-            StarsDataManager.getInstance(getApplicationContext()).clearData();
-        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicBoolean isCleared = new AtomicBoolean(false);
+        StarsPersister.getInstance(getApplicationContext()).clearData(isWritten -> {
+            isCleared.set(isWritten);
+            latch.countDown();
+        });
 
         // Delete the notification to prevent multiple clicks.
         StarsNotificationPoster.cancelNotification(getApplicationContext());
 
-        // Return success, always, regardless of failure.
-        return Result.success();
+        try {
+            if (latch.await(CLEAR_TIMEOUT_SECONDS, TimeUnit.SECONDS) && isCleared.get())
+                return Result.success();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "doWork: Interrupted while clearing the stars.", e);
+        }
+        return Result.retry();
     }
-}
\ No newline at end of file
+}
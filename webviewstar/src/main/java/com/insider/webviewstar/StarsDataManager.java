@@ -3,32 +3,50 @@ package com.insider.webviewstar;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.os.Looper;
-import android.text.TextUtils;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.File;
+import java.io.IOException;
 
 /**
- * The data manager that saves / clears Star data provided in "assets/starfunctions.js"
+ * The data manager that saves / clears Star data provided in "src/main/js/starfunctions.js"
  * which is also passed to {@link StarsManager#onStarsChanged(String)} method
  * via a JavascriptInterface.
  *
- * It is solely responsible to save data to preferences or
+ * It is solely responsible to save data to the disk or
  * read meaningful data from it.
+ *
+ * The data is kept by a {@link StarStore}, which is selected via
+ * {@link WebViewStarConfig#getStoreType()}. The selected type is recorded inside the
+ * preferences, so the workers open the same store even if the SDK is not created
+ * in their process. The file stores are kept inside the "webviewstar" directory
+ * of the app files.
+ *
+ * 1) When the store type is changed, the stars are moved from the old store to the new one,
+ * 2) The data that was saved to preferences by the previous versions is moved
+ * to the selected store, if it is not {@link WebViewStarConfig.StoreType#PREFERENCES},
+ * 3) If a file store could not be opened, the data is saved to preferences as before.
  */
 class StarsDataManager {
 
     private static final String TAG = StarsDataManager.class.getSimpleName();
     private static final String PREF_NAME = "app_stars";
-    private static final String DATA = "data";
+    private static final String STORE_TYPE = "store_type";
+    private static final String DIRECTORY = "webviewstar";
 
     private static final Object sLock = new Object();
 
     private static StarsDataManager INSTANCE;
 
     private final SharedPreferences preferences;
+    private final File directory;
+    private final Object mLock = new Object();
+
+    private WebViewStarConfig.StoreType storeType;
+    private StarStore store;
 
     public static StarsDataManager getInstance(Context context) {
         synchronized (sLock) {
@@ -39,55 +57,163 @@ class StarsDataManager {
     }
 
     private StarsDataManager(Context context) {
-        preferences = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        this(context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE),
+                new File(context.getFilesDir(), DIRECTORY));
+    }
+
+    @VisibleForTesting
+    StarsDataManager(@NonNull SharedPreferences preferences, @NonNull File directory) {
+        this.preferences = preferences;
+        this.directory = directory;
+        final WebViewStarConfig.StoreType recordedType = readStoreType();
+        store = openStore(recordedType);
+        storeType = store instanceof PreferencesStarStore
+                ? WebViewStarConfig.StoreType.PREFERENCES : recordedType;
+
+        if (storeType != WebViewStarConfig.StoreType.PREFERENCES
+                && PreferencesStarStore.hasData(preferences)) {
+            final PreferencesStarStore legacyStore = new PreferencesStarStore(preferences);
+            if (store.getCount() > 0 || moveStars(legacyStore, store))
+                legacyStore.clear();
+        }
     }
 
     /**
-     * Clears the data inside shared preferences.
+     * Selects the store that the data is saved to, moving the existing data into it
+     * if the store type changes. Should be called on a background thread.
+     *
+     * @param type the store type.
      */
-    void clearData() {
-        saveData("");
+    @SuppressLint("ApplySharedPref")
+    void selectStore(@NonNull WebViewStarConfig.StoreType type) {
+        synchronized (mLock) {
+            if (type == storeType)
+                return;
+
+            final StarStore newStore = openStore(type);
+            if (type != WebViewStarConfig.StoreType.PREFERENCES
+                    && newStore instanceof PreferencesStarStore)
+                return;
+            if (!moveStars(store, newStore)) {
+                newStore.close();
+                return;
+            }
+
+            if (store instanceof PreferencesStarStore) {
+                ((PreferencesStarStore) store).clear();
+            } else {
+                try {
+                    store.reset();
+                } catch (IOException e) {
+                    Log.e(TAG, "selectStore: Failed to clear old store.", e);
+                }
+            }
+            store.close();
+
+            store = newStore;
+            storeType = type;
+            preferences.edit().putString(STORE_TYPE, type.name()).commit();
+        }
     }
 
     /**
-     * Saves the data to shared preferences. Uses {@link SharedPreferences.Editor#commit()}
-     * if called from a non-UI (or background) thread.
+     * Saves the stars, replacing the saved ones, and performs the maintenance
+     * of the store if needed. Should be called on a background thread.
      *
-     * @param data is the data to be saved
+     * @param stars the stars to be saved, in the {@link StarCodec} format.
+     * @return true if the stars were saved.
      */
-    @SuppressLint("ApplySharedPref")
-    void saveData(String data) {
-        // If the calling thread is not in main thread, then save
-        // preferences with commit, otherwise save with apply.
-        if (Looper.myLooper() == Looper.getMainLooper()) {
-            preferences.edit().putString(DATA, data).apply();
-        } else {
-            preferences.edit().putString(DATA, data).commit();
+    boolean saveStars(@NonNull byte[] stars) {
+        synchronized (mLock) {
+            try {
+                store.replace(stars);
+                store.maintain();
+                return true;
+            } catch (IOException e) {
+                Log.e(TAG, "saveStars: Failed to write store.", e);
+                return false;
+            }
         }
     }
 
     /**
-     * Returns the existing data inside preferences.
+     * Appends the stars to the saved ones, and performs the maintenance
+     * of the store if needed. Should be called on a background thread.
+     *
+     * @param stars the stars to be appended, in the {@link StarCodec} format.
+     * @return true if the stars were appended.
      */
-    String getData() {
-        return preferences.getString(DATA, "");
+    boolean appendStars(@NonNull byte[] stars) {
+        synchronized (mLock) {
+            try {
+                store.append(stars, 0, stars.length);
+                store.maintain();
+                return true;
+            } catch (IOException e) {
+                Log.e(TAG, "appendStars: Failed to write store.", e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the saved stars, in the {@link StarCodec} format.
+     */
+    @NonNull
+    byte[] getStars() {
+        synchronized (mLock) {
+            return store.getStars();
+        }
+    }
+
+    /**
+     * Opens the store of the given type.
+     *
+     * @return the store, or the preferences store if a file store could not be opened.
+     */
+    @NonNull
+    private StarStore openStore(WebViewStarConfig.StoreType type) {
+        try {
+            switch (type) {
+                case JOURNAL:
+                    return new StarJournal(directory);
+                case MEMORY_MAPPED:
+                    return new MappedStarStore(directory);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "openStore: Failed to open " + type + " store, using preferences.", e);
+        }
+        return new PreferencesStarStore(preferences);
+    }
+
+    /**
+     * Writes the stars of the source store into the target store.
+     *
+     * @return true if the stars were written.
+     */
+    private boolean moveStars(StarStore source, StarStore target) {
+        try {
+            target.replace(source.getStars());
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "moveStars: Failed to move stars.", e);
+            return false;
+        }
     }
 
     /**
-     * Returns the star count. If there is no data, or the data could not be
-     * parsed, returns 0.
+     * Returns the recorded store type, or {@link WebViewStarConfig.StoreType#JOURNAL}
+     * which was used before the store type could be selected.
      */
-    int getStarCount() {
-        final String data = getData();
-        if (TextUtils.isEmpty(data))
-            return 0;
-        else {
+    private WebViewStarConfig.StoreType readStoreType() {
+        final String name = preferences.getString(STORE_TYPE, null);
+        if (name != null) {
             try {
-                return new JSONArray(data).length();
-            } catch (JSONException e) {
-                Log.e(TAG, "getStarCount: Failed to parse JSON: " + data, e);
-                return 0;
+                return WebViewStarConfig.StoreType.valueOf(name);
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "readStoreType: Unknown store type: " + name, e);
             }
         }
+        return WebViewStarConfig.StoreType.JOURNAL;
     }
-}
\ No newline at end of file
+}
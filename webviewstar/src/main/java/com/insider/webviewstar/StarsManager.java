@@ -1,57 +1,125 @@
 package com.insider.webviewstar;
 
 import android.content.Context;
-import android.text.TextUtils;
 import android.util.Log;
 import android.webkit.JavascriptInterface;
 
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * The manager that contains the JavascriptInterface attached
  * to the WebView. The addition of the method is done at
  * {@link WebViewStarSDK#initializeWebView()} method.
  *
- * If there is an existing data from the previous sessions,
- * upon initialization the data will be passed into
- * WebView's Javascript provided from {@link JavascriptInitializer},
- * allowing the state to be restored after a successful URL load operation.
+ * If there is an existing data from the previous sessions, or the data was
+ * changed headlessly while the page was not available, the data will be passed
+ * into WebView's Javascript provided from {@link JavascriptInitializer} once the
+ * script is initialized, allowing the state to be restored after a successful
+ * URL load operation, see {@link #createRestoreCommands()}.
  *
  * The {@link #onStarsChanged(String)} method is triggered if
  * a change is detected inside the JS methods that are provided
- * to WebView, or after the initial data pass if one exists already.
+ * to WebView, or after the initial data pass if one exists already. The change
+ * is applied through the {@link StarStateHub}, so it is not sent back to this page.
  */
-class StarsManager {
+class StarsManager implements WebViewFunctionManager.StateRestorer {
 
     private static final String TAG = StarsManager.class.getSimpleName();
 
+    /**
+     * How many stars are passed to the WebView in a single call when the
+     * saved stars are restored.
+     */
+    static final int RESTORE_CHUNK_SIZE = 65536;
+
     private final Context context;
     private final WebViewFunctionManager functionManager;
+    private final int maxStarCount;
 
-    StarsManager(Context context, WebViewFunctionManager functionManager) {
+    StarsManager(Context context, WebViewFunctionManager functionManager, int maxStarCount) {
         this.functionManager = functionManager;
         this.context = context;
-        init();
+        this.maxStarCount = maxStarCount;
+        functionManager.setStateRestorer(this);
     }
 
     /**
-     * Initializes the first data and if not empty, passes it to WebView
-     * so that the internal state of the WebView can be initialized
-     * once the image is loaded.
+     * Creates the calls that pass the capacity of the sky to the WebView, and then the
+     * current stars if not empty, so that the internal state of the WebView can be
+     * initialized once the script is initialized. A large sky is passed in chunks of
+     * {@link #RESTORE_CHUNK_SIZE} stars, so that a single script stays small.
      */
-    private void init() {
-        final String savedStars = StarsDataManager.getInstance(context).getData();
-        if (!TextUtils.isEmpty(savedStars)) {
-            functionManager.call("initializeStars", savedStars);
+    @NonNull
+    @Override
+    public List<JavascriptCommand> createRestoreCommands() {
+        final List<JavascriptCommand> commands = new ArrayList<>();
+        commands.add(new JavascriptCommand("setMaxStarSize", String.valueOf(maxStarCount), null));
+
+        final StarModel.Snapshot savedStars = StarModel.getInstance(context).getSnapshot();
+        final int count = savedStars.getCount();
+        for (int start = 0; start < count; start += RESTORE_CHUNK_SIZE) {
+            final int end = Math.min(count, start + RESTORE_CHUNK_SIZE);
+            commands.add(new JavascriptCommand(start == 0 ? "initializeStars" : "loadStars",
+                    savedStars.encode(start, end), null));
         }
+        return commands;
+    }
+
+    /**
+     * Called by the document start script once the star functions are
+     * defined in the page, which is before the page itself is loaded.
+     *
+     * The signal is ignored if the script that is running inside the page
+     * does not belong to this SDK build.
+     *
+     * @param version the version of the script inside the page.
+     */
+    @JavascriptInterface
+    public void onScriptReady(String version) {
+        if (StarScriptCache.isCurrentVersion(version))
+            functionManager.onScriptReady();
+        else
+            Log.e(TAG, "onScriptReady: Script version " + version + " does not match " + StarScriptCache.getContentVersion());
     }
 
     /**
      * Called when there is a change inside the WebView JS star array.
+     * The change is applied to the {@link StarModel}, and then written by the
+     * {@link StarsPersister}, immediately if the stars were reset, otherwise
+     * after the persistence window.
+     *
+     * The change is formatted as "offset;stars", which means that the stars after
+     * the offset are replaced with the given stars. A large change is received
+     * in multiple chunks, each with the offset of its first star.
      *
-     * @param stars the stars in JSON format.
+     * @param change the offset and the stars in the {@link StarCodec} format.
      */
     @JavascriptInterface
-    public void onStarsChanged(String stars) {
-        Log.d("WebViewStarSDK", "onStarsChanged: " + stars);
-        StarsDataManager.getInstance(context).saveData(stars);
+    public void onStarsChanged(String change) {
+        Log.d("WebViewStarSDK", "onStarsChanged: " + change);
+        final int separator = change.indexOf(';');
+        byte[] stars = null;
+        int offset = -1;
+        if (separator > 0) {
+            try {
+                offset = Integer.parseInt(change.substring(0, separator));
+                stars = StarCodec.decode(change.substring(separator + 1));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        if (stars == null) {
+            Log.e(TAG, "onStarsChanged: Invalid change: " + change);
+            return;
+        }
+
+        final StarModel model = StarModel.getInstance(context);
+        if (!StarStateHub.getInstance(context).applyPageChange(functionManager, offset, stars)) {
+            Log.e(TAG, "onStarsChanged: Offset " + offset + " is beyond " + model.getCount() + " stars.");
+            return;
+        }
+        StarsPersister.getInstance(context).onModelChanged(model.getCount() == 0);
     }
 }
\ No newline at end of file
@@ -19,8 +19,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 /**
  * The responsible class for sending or canceling existing star count
  * notifications after the app goes to background, or goes to foreground.
- * Triggered via {@link WebViewStarSDK#onBackground()} or
- * {@link WebViewStarSDK#onForeground()}.
+ * Triggered via the {@link ProcessLifecycleTracker} listener of {@link WebViewStarSDK}.
  *
  * Methods are defined as static, as the context will be provided,
  * however the initialize method can also be called via an {@link android.app.Application}
@@ -31,8 +30,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * and the notification (which will also contain an action to delete existing stars
  * from the disk and RAM) can be posted using {@link #postNotification(Context, int)}.
  *
- * The post notification method gets triggered after 5 seconds when the app
- * goes to background, using the {@link StarsNotificationWorker}.
+ * The post notification method gets triggered after the notification delay when
+ * the app goes to background, using the {@link StarsNotificationScheduler}.
  */
 class StarsNotificationPoster {
 
@@ -54,7 +53,7 @@ class StarsNotificationPoster {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                 final NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
                         "StarsNotificationChannel", NotificationManager.IMPORTANCE_DEFAULT);
-                channel.setDescription("Shows how many stars exist inside the notification after 5 seconds subsequent to app exit.");
+                channel.setDescription("Shows how many stars exist inside the notification shortly after app exit.");
                 final NotificationManager manager = ContextCompat.getSystemService(context, NotificationManager.class);
                 if (manager != null)
                     manager.createNotificationChannel(channel);
@@ -0,0 +1,177 @@
+package com.insider.webviewstar;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The scheduler that posts the star notification after the app has been at
+ * background for the notification delay, see {@link WebViewStarConfig#getNotificationDelayMillis()}.
+ *
+ * The notification is timed on the main thread, and posted on the IO lane of
+ * {@link StarExecutors}, since the process usually stays alive for the delay, so
+ * going to background and foreground neither enqueues nor cancels any work of the
+ * {@link androidx.work.WorkManager}:
+ *
+ * 1) {@link #schedule()} posts the notification at the end of the delay, which is
+ * measured in uptime, so it does not elapse while the device is asleep,
+ * 2) {@link #cancel()} removes it, once the app goes to foreground,
+ * 3) Only if the process is likely to be killed before the delay ends, such as at
+ * {@link #TRIM_MEMORY_BACKGROUND} and above, the {@link StarsNotificationWorker} is
+ * enqueued for the rest of the delay as a durable fallback, and it is cancelled once
+ * the notification is posted, or the app goes to foreground.
+ *
+ * Since a worker that was enqueued by a previous process may still be pending, it is
+ * cancelled the first time the notification is cancelled or posted by this process.
+ */
+class StarsNotificationScheduler implements ComponentCallbacks2 {
+
+    static final long DEFAULT_DELAY_MILLIS = 5000;
+
+    private static final Object sLock = new Object();
+    private static StarsNotificationScheduler INSTANCE;
+
+    private final Object mLock = new Object();
+    private final Context context;
+    private final Runnable postTask = this::postNotification;
+    private final Runnable scheduledPostTask = () -> StarExecutors.io().execute(postTask);
+
+    private long delayMillis = DEFAULT_DELAY_MILLIS;
+
+    /**
+     * The uptime at which the scheduled notification is posted,
+     * or 0 if no notification is scheduled.
+     */
+    private long dueUptimeMillis = 0;
+
+    /**
+     * Whether the worker was enqueued as the fallback of the scheduled notification.
+     */
+    private boolean isWorkEnqueued = false;
+
+    /**
+     * Whether a worker that was enqueued by a previous process may still be pending.
+     */
+    private boolean isStaleWorkPossible = true;
+
+    private StarsNotificationScheduler(@NonNull Context context) {
+        this.context = context;
+        context.registerComponentCallbacks(this);
+    }
+
+    static StarsNotificationScheduler getInstance(@NonNull Context context) {
+        synchronized (sLock) {
+            if (INSTANCE == null)
+                INSTANCE = new StarsNotificationScheduler(context.getApplicationContext());
+            return INSTANCE;
+        }
+    }
+
+    /**
+     * Sets how long the app should be at background before the notification
+     * is posted. A change only affects the next scheduled notification.
+     */
+    void setDelayMillis(long delayMillis) {
+        synchronized (mLock) {
+            this.delayMillis = Math.max(0, delayMillis);
+        }
+    }
+
+    /**
+     * Schedules the notification after the delay, replacing the one
+     * that is already scheduled. Called when the app goes to background.
+     */
+    void schedule() {
+        synchronized (mLock) {
+            StarExecutors.getMainHandler().removeCallbacks(scheduledPostTask);
+            dueUptimeMillis = SystemClock.uptimeMillis() + delayMillis;
+            StarExecutors.getMainHandler().postAtTime(scheduledPostTask, dueUptimeMillis);
+        }
+    }
+
+    /**
+     * Cancels the scheduled notification, and the worker if it was enqueued.
+     * Called when the app goes to foreground, or an SDK instance is created.
+     */
+    void cancel() {
+        final boolean isWorkCancelled;
+        synchronized (mLock) {
+            StarExecutors.getMainHandler().removeCallbacks(scheduledPostTask);
+            dueUptimeMillis = 0;
+            isWorkCancelled = clearWork();
+        }
+        if (isWorkCancelled)
+            StarsNotificationWorker.cancelWorker(context);
+    }
+
+    /**
+     * Posts the notification with the star count of the model, which also
+     * contains the changes that are not written yet. Called on the IO lane, where
+     * it does nothing if the notification was cancelled, or scheduled again, after
+     * the timer fired.
+     *
+     * The notification is posted while holding the lock, so once {@link #cancel()}
+     * returns, it is either posted already, or it is never posted.
+     */
+    private void postNotification() {
+        final boolean isWorkCancelled;
+        synchronized (mLock) {
+            if (dueUptimeMillis == 0 || SystemClock.uptimeMillis() < dueUptimeMillis)
+                return;
+            dueUptimeMillis = 0;
+            isWorkCancelled = clearWork();
+            StarsNotificationPoster.postNotification(context, StarModel.getInstance(context).getCount());
+        }
+        if (isWorkCancelled)
+            StarsNotificationWorker.cancelWorker(context);
+    }
+
+    /**
+     * Enqueues the worker for the rest of the delay, if a notification is scheduled,
+     * so that it is posted even if the process is killed in the meantime.
+     */
+    private void enqueueWork() {
+        final long remainingMillis;
+        synchronized (mLock) {
+            if (dueUptimeMillis == 0 || isWorkEnqueued)
+                return;
+            remainingMillis = Math.max(0, dueUptimeMillis - SystemClock.uptimeMillis());
+            isWorkEnqueued = true;
+        }
+        StarsNotificationWorker.createWorker(context, remainingMillis);
+    }
+
+    /**
+     * Clears the state of the worker. Must be called while holding the lock.
+     *
+     * @return true if the worker may be pending, so it should be cancelled.
+     */
+    private boolean clearWork() {
+        final boolean isWorkPending = isWorkEnqueued || isStaleWorkPossible;
+        isWorkEnqueued = false;
+        isStaleWorkPossible = false;
+        return isWorkPending;
+    }
+
+    /**
+     * Enqueues the worker from {@link #TRIM_MEMORY_BACKGROUND}, since the process
+     * is then in the list of the cached processes that are killed first.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND)
+            enqueueWork();
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+
+    @Override
+    public void onLowMemory() {
+        enqueueWork();
+    }
+}
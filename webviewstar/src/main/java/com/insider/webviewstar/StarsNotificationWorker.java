@@ -20,6 +20,10 @@ import java.util.concurrent.TimeUnit;
  * and as long as {@link #cancelWorker(Context)} was not called between 5 seconds,
  * the worker will work and post the notification using
  * {@link StarsNotificationPoster#postNotification(Context, int)}.
+ *
+ * The SDK itself posts the notification using the {@link StarsNotificationScheduler},
+ * which only enqueues this worker as a durable fallback if the process is likely
+ * to be killed before the notification is posted.
  */
 public class StarsNotificationWorker extends Worker {
 
@@ -37,10 +41,21 @@ public class StarsNotificationWorker extends Worker {
      * @param context is any context.
      */
     public static void createWorker(Context context) {
+        createWorker(context, StarsNotificationScheduler.DEFAULT_DELAY_MILLIS);
+    }
+
+    /**
+     * Creates the worker which will have the given initial delay to be
+     * executed. If there was an existing worker, it will be replaced.
+     *
+     * @param context is any context.
+     * @param delayMillis the initial delay in milliseconds.
+     */
+    static void createWorker(Context context, long delayMillis) {
         try {
             final WorkManager manager = WorkManager.getInstance(context);
             final OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(StarsNotificationWorker.class)
-                    .setInitialDelay(5, TimeUnit.SECONDS)
+                    .setInitialDelay(delayMillis, TimeUnit.MILLISECONDS)
                     .build();
             manager.enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.REPLACE, request);
         } catch (Exception e) {
@@ -66,8 +81,9 @@ public class StarsNotificationWorker extends Worker {
     @NonNull
     @Override
     public Result doWork() {
-        // Read the star count using the data manager singleton.
-        final int starCount = StarsDataManager.getInstance(getApplicationContext()).getStarCount();
+        // Read the star count using the model, which also contains
+        // the changes that are not written yet.
+        final int starCount = StarModel.getInstance(getApplicationContext()).getCount();
 
         // Post the notification.
         StarsNotificationPoster.postNotification(getApplicationContext(), starCount);
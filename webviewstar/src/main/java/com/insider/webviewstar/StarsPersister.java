@@ -0,0 +1,262 @@
+package com.insider.webviewstar;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The write-behind stage in front of {@link StarsDataManager}, which the star
+ * changes go through instead of being saved one by one.
+ *
+ * The changes are applied to the {@link StarModel} first, and the persister is only
+ * notified that the model changed, so:
+ *
+ * 1) The changes that are notified within the window (see
+ * {@link WebViewStarConfig#getPersistenceWindowMillis()}) are coalesced,
+ * and only the latest snapshot of the model is written once the window ends,
+ * 2) A snapshot that is identical to the last written one is not written again, and
+ * a snapshot that only appended stars to the last written one only writes the new stars,
+ * 3) The pending change is written immediately when the app goes to background,
+ * when the process is asked to trim memory, and when the stars are reset,
+ * 4) A change that could not be written stays pending, and it is written again after
+ * {@link #RETRY_DELAY_MILLIS}, doubling the delay after every failed write up to
+ * {@link #MAX_RETRY_DELAY_MILLIS}, or sooner if it is flushed.
+ *
+ * The window is timed on the main thread, and the writes are performed on the IO lane
+ * of {@link StarExecutors}, so the {@link StarStore} can touch the disk without blocking
+ * the main or the JavaBridge thread, and it is never accessed concurrently. The reads
+ * should use the {@link StarModel}, which always contains the latest change, even
+ * if it is not written yet.
+ */
+class StarsPersister implements ComponentCallbacks2 {
+
+    private static final long DEFAULT_WINDOW_MILLIS = 300;
+
+    /**
+     * The delay before the first retry of a write that failed.
+     */
+    static final long RETRY_DELAY_MILLIS = 1000;
+
+    /**
+     * The maximum delay between the retries of a write that keeps failing.
+     */
+    static final long MAX_RETRY_DELAY_MILLIS = 60_000;
+
+    private static final Object sLock = new Object();
+
+    private static StarsPersister INSTANCE;
+
+    private final StarsDataManager dataManager;
+    private final StarModel model;
+    private final Object mLock = new Object();
+    private final Runnable writeTask = this::write;
+    private final Runnable scheduledWriteTask = () -> StarExecutors.io().execute(writeTask);
+
+    private volatile long windowMillis = DEFAULT_WINDOW_MILLIS;
+
+    private boolean isDirty = false;
+    private boolean isWriteScheduled = false;
+
+    /**
+     * The delay before the next retry, which is doubled after every failed write.
+     */
+    private long retryDelayMillis = RETRY_DELAY_MILLIS;
+
+    /**
+     * The last snapshot that was written, or null if the last write failed,
+     * which is only accessed on the IO lane.
+     */
+    private StarModel.Snapshot lastWrittenSnapshot;
+
+    static StarsPersister getInstance(Context context) {
+        synchronized (sLock) {
+            if (INSTANCE == null)
+                INSTANCE = new StarsPersister(context.getApplicationContext());
+            return INSTANCE;
+        }
+    }
+
+    private StarsPersister(Context context) {
+        this(StarsDataManager.getInstance(context), StarModel.getInstance(context));
+        context.registerComponentCallbacks(this);
+    }
+
+    @VisibleForTesting
+    StarsPersister(@NonNull StarsDataManager dataManager, @NonNull StarModel model) {
+        this.dataManager = dataManager;
+        this.model = model;
+        this.lastWrittenSnapshot = model.getSnapshot();
+    }
+
+    /**
+     * Sets how long the changes are coalesced before they are written.
+     *
+     * @param windowMillis the window in milliseconds.
+     */
+    void setWindowMillis(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Selects the store that the data is written to, on the IO lane,
+     * so that it does not race with the writes.
+     *
+     * @param type the store type.
+     */
+    void setStoreType(@NonNull WebViewStarConfig.StoreType type) {
+        synchronized (mLock) {
+            StarExecutors.io().execute(() -> dataManager.selectStore(type));
+        }
+    }
+
+    /**
+     * Notifies that the {@link StarModel} changed, so its latest snapshot should be written.
+     *
+     * @param immediate whether the snapshot should be written without waiting
+     *                  for the window, such as after a reset.
+     */
+    void onModelChanged(boolean immediate) {
+        synchronized (mLock) {
+            isDirty = true;
+            if (immediate) {
+                scheduleWrite(0);
+            } else if (!isWriteScheduled) {
+                scheduleWrite(windowMillis);
+            }
+        }
+    }
+
+    /**
+     * Writes the pending change, if any, without waiting for the window.
+     */
+    void flush() {
+        synchronized (mLock) {
+            if (isDirty)
+                scheduleWrite(0);
+        }
+    }
+
+    /**
+     * Writes the pending change, if any, and waits until it is written.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the timeout.
+     * @return true if the change was written within the timeout.
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     */
+    @VisibleForTesting
+    boolean flushAndAwait(long timeout, TimeUnit unit) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        synchronized (mLock) {
+            if (isDirty)
+                scheduleWrite(0);
+            StarExecutors.io().execute(latch::countDown);
+        }
+        return latch.await(timeout, unit);
+    }
+
+    /**
+     * Clears the stars, writing the change immediately. The live WebViews are
+     * notified of the reset by the {@link StarStateHub}.
+     *
+     * @param callback called on the IO lane once the change is written.
+     */
+    void clearData(@NonNull WriteCallback callback) {
+        model.reset();
+        synchronized (mLock) {
+            // Written even if the model was already empty, so the
+            // callback tells whether the store is in sync with it.
+            isDirty = true;
+            scheduleWrite(0);
+            StarExecutors.io().execute(() -> callback.onWritten(lastWrittenSnapshot != null));
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        flush();
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+
+    @Override
+    public void onLowMemory() {
+        flush();
+    }
+
+    /**
+     * The callback of a write that was requested by {@link #clearData(WriteCallback)}.
+     */
+    interface WriteCallback {
+
+        /**
+         * Called on the IO lane after the write.
+         *
+         * @param isWritten false if the store could not be written.
+         */
+        void onWritten(boolean isWritten);
+    }
+
+    /**
+     * Schedules the write after the given delay, replacing the delayed one. The delay
+     * is timed on the main thread, so the IO lane is not held while waiting. A write
+     * that is already submitted to the lane does nothing if the change is written.
+     * Must be called while holding the lock.
+     */
+    private void scheduleWrite(long delayMillis) {
+        final Handler mainHandler = StarExecutors.getMainHandler();
+        mainHandler.removeCallbacks(scheduledWriteTask);
+        if (delayMillis == 0)
+            StarExecutors.io().execute(writeTask);
+        else
+            mainHandler.postDelayed(scheduledWriteTask, delayMillis);
+        isWriteScheduled = true;
+    }
+
+    /**
+     * Writes the latest snapshot of the model, unless it is identical to the last
+     * written one. If it only appended stars to the last written one, only the new
+     * stars are written. If the write fails, the change stays pending, and it is
+     * retried with a backoff. Called on the IO lane.
+     */
+    private void write() {
+        synchronized (mLock) {
+            isWriteScheduled = false;
+            if (!isDirty)
+                return;
+            isDirty = false;
+        }
+
+        final StarModel.Snapshot snapshot = model.getSnapshot();
+        if (snapshot == lastWrittenSnapshot)
+            return;
+
+        final boolean isWritten;
+        if (lastWrittenSnapshot != null && snapshot.isAppendOf(lastWrittenSnapshot))
+            isWritten = dataManager.appendStars(snapshot.toArray(lastWrittenSnapshot.getCount()));
+        else
+            isWritten = dataManager.saveStars(snapshot.toArray());
+        lastWrittenSnapshot = isWritten ? snapshot : null;
+
+        synchronized (mLock) {
+            if (isWritten) {
+                retryDelayMillis = RETRY_DELAY_MILLIS;
+                return;
+            }
+            isDirty = true;
+            // A write that is already scheduled, such as by a flush, is the retry.
+            if (!isWriteScheduled)
+                scheduleWrite(retryDelayMillis);
+            retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+        }
+    }
+}
@@ -1,53 +1,619 @@
 package com.insider.webviewstar;
 
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.View;
+import android.webkit.ValueCallback;
 import android.webkit.WebView;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.core.view.ViewCompat;
 
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
+import org.json.JSONArray;
+import org.json.JSONException;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The manager that calls the functions of the star script inside the WebView.
+ *
+ * The calls are held by a {@link PendingCommandBuffer} until the script is initialized,
+ * which never drops a call. After that, they are sent to the WebView according to
+ * the {@link WebViewStarConfig.FlushPolicy}.
+ * With the batching policies, the calls that are made within the same
+ * {@link Choreographer} frame are sent in a single script evaluation, keeping
+ * their order and delivering the result of every call to its own callback.
+ *
+ * If {@link #enableMessagePort(String, MessagePortBridge.StateListener)} is called,
+ * the calls are sent through a {@link MessagePortBridge} once it is connected,
+ * and they are only evaluated as script source if the bridge is not available,
+ * or the script does not acknowledge it.
+ *
+ * If there is no live WebView to run the calls, such as when the page fails to
+ * load, it does not initialize the script within the page load timeout, or the
+ * WebView is detached, the calls are applied by a {@link HeadlessStarEngine} on the
+ * main thread instead. If the script is initialized afterwards, the state of the
+ * {@link StarModel} is restored into the page before the next calls are sent,
+ * see {@link StateRestorer}.
+ *
+ * The page can also be released under memory pressure, see {@link StarPage#release()}.
+ * The calls are then applied headlessly, or buffered again if the fallback is
+ * disabled, and the next call requests the page to be rebuilt.
+ *
+ * If more than one SDK instance is live, the calls are applied by the
+ * {@link HeadlessStarEngine} to the shared {@link StarModel} instead, and every
+ * page receives the change from the {@link StarStateHub}, see {@link #sync(List)}.
+ *
+ * Every command receives a result: the value returned by its function, or
+ * {@link JavascriptCommand#RESULT_DESTROYED} if it could not be sent since
+ * the manager was destroyed or the WebView was detached, and the headless
+ * fallback is disabled.
+ *
+ * The batch and the bridge are only accessed on the main thread.
+ */
 class WebViewFunctionManager {
 
-    private final Queue<Runnable> afterInitializeQueue = new LinkedBlockingQueue<>(10);
+    private static final String TAG = WebViewFunctionManager.class.getSimpleName();
+
+    private final List<JavascriptCommand> batch = new ArrayList<>();
+
+    /**
+     * The commands that were evaluated, but whose results were not received yet,
+     * which are failed once the manager is destroyed, since the WebView does not
+     * deliver the results of the evaluations after it is destroyed.
+     */
+    private final Set<JavascriptCommand> sentCommands = new LinkedHashSet<>();
+    private final Choreographer.FrameCallback flushCallback = frameTimeNanos -> flush();
+    private final Handler mainHandler = StarExecutors.getMainHandler();
+    private final Runnable pageLoadTimeoutCallback = () -> enterHeadlessMode("page load timed out");
     private final WebView webView;
+    private final WebViewStarConfig.FlushPolicy flushPolicy;
+    private final int maxBatchSize;
+    private final long pageLoadTimeoutMillis;
+
+    /**
+     * The buffer of the calls that are made before the script is initialized,
+     * which is replaced once the page is released.
+     */
+    private volatile PendingCommandBuffer pendingCommands = new PendingCommandBuffer();
+
+    /**
+     * The engine that applies the calls while the stars are shared by multiple
+     * instances, or when there is no live WebView, if the headless fallback is enabled.
+     */
+    private final HeadlessStarEngine engine;
+    private final boolean isHeadlessFallbackEnabled;
+    private final StarStateHub stateHub;
 
+    private boolean isFlushScheduled = false;
     private boolean isInitialized = false;
+    private volatile boolean isHeadless = false;
+    private volatile boolean isDestroyed = false;
+    private volatile boolean isReleased = false;
+
+    /**
+     * The count of the pages that were released, so that an initialization
+     * which was posted by a released page is ignored.
+     */
+    private volatile int releasedPageCount = 0;
+
+    /**
+     * The task that loads the released page again, see {@link StarPage#rebuild()}.
+     */
+    @Nullable
+    private Runnable pageRebuilder;
+
+    /**
+     * Whether a command was applied headlessly after the script was initialized,
+     * such as while the WebView was detached, so the page does not have it.
+     */
+    private boolean isPageStale = false;
+
+    @Nullable
+    private StateRestorer stateRestorer;
 
-    WebViewFunctionManager(WebView webView) {
+    /**
+     * The initialization that is waiting for the WebView to be attached, which
+     * happens if the page was loaded ahead of time, see {@link WebViewStarPool}.
+     */
+    @Nullable
+    private Runnable deferredInitialization;
+    private final View.OnAttachStateChangeListener deferredInitializationListener =
+            new View.OnAttachStateChangeListener() {
+                @Override
+                public void onViewAttachedToWindow(View view) {
+                    view.removeOnAttachStateChangeListener(this);
+                    final Runnable initialization = deferredInitialization;
+                    deferredInitialization = null;
+                    if (initialization != null && !isDestroyed)
+                        initialization.run();
+                }
+
+                @Override
+                public void onViewDetachedFromWindow(View view) {
+                }
+            };
+
+    @Nullable
+    private MessagePortBridge messagePortBridge;
+    @Nullable
+    private String messagePortUrl;
+
+    WebViewFunctionManager(WebView webView, WebViewStarConfig config) {
+        this(webView, config, new HeadlessStarEngine(webView.getContext(), config.getMaxStarCount()),
+                StarStateHub.getInstance(webView.getContext()));
+    }
+
+    @VisibleForTesting
+    WebViewFunctionManager(WebView webView, WebViewStarConfig config, HeadlessStarEngine engine,
+                           StarStateHub stateHub) {
         this.webView = webView;
+        this.flushPolicy = config.getCommandFlushPolicy();
+        this.maxBatchSize = config.getMaxBatchSize();
+        this.pageLoadTimeoutMillis = config.getPageLoadTimeoutMillis();
+        this.engine = engine;
+        this.isHeadlessFallbackEnabled = config.isHeadlessFallbackEnabled();
+        this.stateHub = stateHub;
+    }
+
+    /**
+     * Sets the restorer that provides the commands which pass the state of the
+     * stars to the script every time it is initialized.
+     */
+    void setStateRestorer(@NonNull StateRestorer stateRestorer) {
+        this.stateRestorer = stateRestorer;
+    }
+
+    /**
+     * Sets the task that loads the page again after it is released, which
+     * is posted to the main thread once a function is called.
+     */
+    void setPageRebuilder(@NonNull Runnable pageRebuilder) {
+        this.pageRebuilder = pageRebuilder;
+    }
+
+    /**
+     * Starts waiting for the script to be initialized, after the page starts
+     * loading. If it is not initialized within the page load timeout, the
+     * calls are applied headlessly until it is. Called on the main thread.
+     */
+    void startPageLoadTimeout() {
+        if (isHeadlessFallbackEnabled && pageLoadTimeoutMillis > 0 && !isInitialized)
+            mainHandler.postDelayed(pageLoadTimeoutCallback, pageLoadTimeoutMillis);
+    }
+
+    /**
+     * Called when the page could not be loaded, in which case the script will not be
+     * initialized, so the calls are applied headlessly. Called on the main thread.
+     *
+     * @param description the description of the error.
+     */
+    void onPageLoadFailed(String description) {
+        enterHeadlessMode("page load failed: " + description);
+    }
+
+    /**
+     * Applies the buffered calls and the calls made afterwards with the
+     * {@link HeadlessStarEngine}, until the script is initialized.
+     * Called on the main thread.
+     */
+    private void enterHeadlessMode(String reason) {
+        if (!isHeadlessFallbackEnabled || isDestroyed || isInitialized || isHeadless)
+            return;
+        Log.w(TAG, "enterHeadlessMode: Applying the star calls without the WebView, " + reason);
+        mainHandler.removeCallbacks(pageLoadTimeoutCallback);
+        isHeadless = true;
+        for (JavascriptCommand command : pendingCommands.open()) {
+            dispatch(command);
+        }
+    }
+
+    /**
+     * Enables sending the calls through a WebMessage channel, which will be
+     * connected every time the star script is initialized. Has no effect
+     * below API 23, where the calls are always evaluated.
+     *
+     * @param url the URL of the page that contains the star script.
+     * @param stateListener the listener of the star changes sent through the channel.
+     */
+    void enableMessagePort(String url, MessagePortBridge.StateListener stateListener) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            messagePortBridge = new MessagePortBridge(webView, stateListener, this::evaluateScript);
+            messagePortUrl = url;
+        }
     }
 
     void initialize(String javascript) {
         runTask(() -> {
             webView.evaluateJavascript(javascript, null);
-            isInitialized = true;
-            Runnable task;
-            while ((task = afterInitializeQueue.poll()) != null) {
-                task.run();
-            }
+            onInitialized();
         });
     }
 
+    /**
+     * Called when the script that was registered at document start
+     * reports that the star functions are available in the page.
+     */
+    void onScriptReady() {
+        runTask(this::onInitialized);
+    }
+
+    /**
+     * Opens the pending command buffer and sends the buffered commands.
+     * Called on the main thread, so the commands that are made after the
+     * buffer is opened are always posted after these.
+     */
+    private void onInitialized() {
+        mainHandler.removeCallbacks(pageLoadTimeoutCallback);
+        if (isHeadless)
+            Log.d(TAG, "onInitialized: Restoring the stars that were changed without the WebView.");
+        isInitialized = true;
+        isHeadless = false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && messagePortBridge != null)
+            messagePortBridge.connect(messagePortUrl);
+        // The state is read now rather than when the page started loading, so
+        // it contains the changes that were applied headlessly in the meantime.
+        if (stateRestorer != null) {
+            for (JavascriptCommand command : stateRestorer.createRestoreCommands()) {
+                enqueue(command);
+            }
+        }
+        for (JavascriptCommand command : pendingCommands.open()) {
+            enqueue(command);
+        }
+        final int coalescedCount = pendingCommands.getCoalescedCount();
+        if (coalescedCount > 0)
+            Log.d(TAG, "onInitialized: Coalesced " + coalescedCount + " pending commands.");
+    }
+
     void call(String functionName) {
-        runAfterInitialize(() -> webView.evaluateJavascript(functionName + "();", null));
+        call(functionName, null, null);
     }
 
     void call(String functionName, String argument) {
-        runAfterInitialize(() -> webView.evaluateJavascript(functionName + "('" + argument + "');", null));
+        call(functionName, argument, null);
+    }
+
+    /**
+     * Calls the function with the given argument, if there is one.
+     *
+     * @param functionName the name of the function inside the star script.
+     * @param argument the string argument of the function, if any.
+     * @param callback the callback that receives the JSON representation
+     *                 of the returned value, if any.
+     */
+    void call(String functionName, @Nullable String argument, @Nullable ValueCallback<String> callback) {
+        final JavascriptCommand command = new JavascriptCommand(functionName, argument, callback);
+        final Runnable rebuilder = pageRebuilder;
+        if (isReleased && !isDestroyed && rebuilder != null)
+            mainHandler.post(rebuilder);
+        if (isDestroyed || isHeadless || stateHub.isShared()) {
+            mainHandler.post(() -> dispatch(command));
+            return;
+        }
+        if (pendingCommands.offer(command))
+            return;
+        // Not posted to the WebView, which only runs it once it is attached.
+        mainHandler.post(() -> dispatch(command));
+    }
+
+    /**
+     * Sends the command to the WebView if it is live, otherwise applies it
+     * headlessly. Called on the main thread, so a command is never applied
+     * headlessly after the state of the stars is restored into the page.
+     *
+     * @param command the command to be sent.
+     */
+    private void dispatch(JavascriptCommand command) {
+        // The change is applied once for all the pages, and sent to them by the hub.
+        if (!isDestroyed && stateHub.isShared()) {
+            command.deliverResult(engine.call(command.functionName, command.argument));
+            return;
+        }
+        // The page was released after the command was posted.
+        if (!isDestroyed && !isHeadless && !isInitialized && pendingCommands.offer(command))
+            return;
+        if (!isDestroyed && !isHeadless && ViewCompat.isAttachedToWindow(webView))
+            enqueue(command);
+        else
+            runHeadless(command);
+    }
+
+    /**
+     * Applies the command with the {@link HeadlessStarEngine}, or delivers
+     * {@link JavascriptCommand#RESULT_DESTROYED} if the fallback is disabled.
+     */
+    private void runHeadless(JavascriptCommand command) {
+        if (isHeadlessFallbackEnabled) {
+            isPageStale |= isInitialized && !isDestroyed;
+            command.deliverResult(engine.call(command.functionName, command.argument));
+        } else {
+            command.deliverResult(JavascriptCommand.RESULT_DESTROYED);
+        }
+    }
+
+    /**
+     * Sends the commands that apply a change of the shared stars to the page, which
+     * were created once for every page by the {@link StarStateHub}. Nothing is sent
+     * if the script is not running in a live page, since the state of the stars is
+     * restored into the page once it is. Called on the main thread.
+     *
+     * @param commands the commands that apply the change.
+     */
+    void sync(@NonNull List<JavascriptCommand> commands) {
+        if (isDestroyed || isHeadless || !isInitialized)
+            return;
+        if (!ViewCompat.isAttachedToWindow(webView)) {
+            isPageStale = true;
+            return;
+        }
+        for (JavascriptCommand command : commands) {
+            enqueue(command);
+        }
+    }
+
+    /**
+     * Called when the WebView is attached to window again after it was retained
+     * across a configuration change. If any command was applied headlessly while
+     * it was detached, the state of the stars is restored into the page again.
+     * Called on the main thread.
+     */
+    void onReattached() {
+        if (!isPageStale || isDestroyed)
+            return;
+        isPageStale = false;
+        Log.d(TAG, "onReattached: Restoring the stars that were changed while the WebView was detached.");
+        if (stateRestorer != null) {
+            for (JavascriptCommand command : stateRestorer.createRestoreCommands()) {
+                enqueue(command);
+            }
+        }
     }
 
-    private void runAfterInitialize(Runnable runnable) {
-        if (isInitialized)
-            runTask(runnable);
+    /**
+     * Called when the page is released, after which the script is not initialized
+     * until the page is rebuilt. The commands of the current batch, the commands that
+     * were buffered for the released page, as well as the calls made afterwards, are
+     * applied headlessly, or buffered if the headless fallback is disabled. The state of the stars is restored into the rebuilt
+     * page once the script is initialized again. Called on the main thread.
+     */
+    void onPageReleased() {
+        if (isDestroyed)
+            return;
+        isReleased = true;
+        releasedPageCount++;
+        mainHandler.removeCallbacks(pageLoadTimeoutCallback);
+        if (deferredInitialization != null) {
+            deferredInitialization = null;
+            webView.removeOnAttachStateChangeListener(deferredInitializationListener);
+        }
+        if (isFlushScheduled) {
+            isFlushScheduled = false;
+            Choreographer.getInstance().removeFrameCallback(flushCallback);
+        }
+        // The calls that the bridge held were flushed before the current batch.
+        final List<JavascriptCommand> commands = new ArrayList<>();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && messagePortBridge != null)
+            commands.addAll(messagePortBridge.close());
+        commands.addAll(batch);
+        batch.clear();
+        isInitialized = false;
+        isPageStale = false;
+        // The buffer is opened after it is replaced, so a call that is still offered
+        // to it is either drained here, or rejected and dispatched by the caller.
+        final PendingCommandBuffer releasedCommands = pendingCommands;
+        pendingCommands = new PendingCommandBuffer();
+        commands.addAll(releasedCommands.open());
+        isHeadless = isHeadlessFallbackEnabled;
+        for (JavascriptCommand command : commands) {
+            dispatch(command);
+        }
+    }
+
+    /**
+     * Called when the released page starts loading again, so that the
+     * next calls do not request it again. Called on the main thread.
+     */
+    void onPageRebuilt() {
+        isReleased = false;
+    }
+
+    /**
+     * Adds the command to the current batch, and schedules or performs the flush
+     * depending on the flush policy. Called on the main thread.
+     *
+     * @param command the command to be sent.
+     */
+    private void enqueue(JavascriptCommand command) {
+        if (flushPolicy == WebViewStarConfig.FlushPolicy.IMMEDIATE) {
+            evaluate(command);
+            return;
+        }
+
+        batch.add(command);
+        if (flushPolicy == WebViewStarConfig.FlushPolicy.MAX_BATCH_SIZE && batch.size() >= maxBatchSize) {
+            flush();
+        } else if (!isFlushScheduled) {
+            isFlushScheduled = true;
+            Choreographer.getInstance().postFrameCallback(flushCallback);
+        }
+    }
+
+    /**
+     * Releases the pending frame callback and the message channel. The commands that
+     * were not sent are applied headlessly, and {@link JavascriptCommand#RESULT_DESTROYED}
+     * is delivered to the commands whose results were not received, since it is not
+     * known whether they were applied. Called on the main thread.
+     */
+    void onDestroy() {
+        isDestroyed = true;
+        mainHandler.removeCallbacks(pageLoadTimeoutCallback);
+        if (deferredInitialization != null) {
+            deferredInitialization = null;
+            webView.removeOnAttachStateChangeListener(deferredInitializationListener);
+        }
+        if (isFlushScheduled) {
+            isFlushScheduled = false;
+            Choreographer.getInstance().removeFrameCallback(flushCallback);
+        }
+        for (JavascriptCommand command : pendingCommands.open()) {
+            runHeadless(command);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && messagePortBridge != null) {
+            for (JavascriptCommand command : messagePortBridge.close()) {
+                runHeadless(command);
+            }
+        }
+        dropBatch();
+        final List<JavascriptCommand> commands = new ArrayList<>(sentCommands);
+        sentCommands.clear();
+        for (JavascriptCommand command : commands) {
+            command.deliverResult(JavascriptCommand.RESULT_DESTROYED);
+        }
+    }
+
+    /**
+     * Sends the current batch to the WebView as a single evaluation.
+     */
+    private void flush() {
+        if (isFlushScheduled) {
+            isFlushScheduled = false;
+            Choreographer.getInstance().removeFrameCallback(flushCallback);
+        }
+        if (batch.isEmpty())
+            return;
+        if (!ViewCompat.isAttachedToWindow(webView)) {
+            dropBatch();
+            return;
+        }
+
+        final List<JavascriptCommand> commands = new ArrayList<>(batch);
+        batch.clear();
+        if (commands.size() == 1) {
+            evaluate(commands.get(0));
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && messagePortBridge != null
+                && messagePortBridge.isConnected()) {
+            messagePortBridge.send(commands);
+            return;
+        }
+        evaluateScript(commands);
+    }
+
+    private void evaluate(JavascriptCommand command) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && messagePortBridge != null
+                && messagePortBridge.isConnected())
+            messagePortBridge.send(Collections.singletonList(command));
         else
-            afterInitializeQueue.offer(runnable);
+            evaluateScript(Collections.singletonList(command));
     }
 
+    /**
+     * Evaluates the commands as script source, without the message channel. A single
+     * command is evaluated as it is, and more commands as a single evaluation.
+     */
+    private void evaluateScript(List<JavascriptCommand> commands) {
+        if (isDestroyed) {
+            for (JavascriptCommand command : commands) {
+                command.deliverResult(JavascriptCommand.RESULT_DESTROYED);
+            }
+            return;
+        }
+        sentCommands.addAll(commands);
+        if (commands.size() == 1) {
+            final JavascriptCommand command = commands.get(0);
+            webView.evaluateJavascript(command.toExpression() + ";", result -> {
+                sentCommands.remove(command);
+                command.deliverResult(result);
+            });
+            return;
+        }
+
+        // Every call is isolated, so that a failing call does not prevent
+        // the next ones, and its result is kept in the same index.
+        final StringBuilder script = new StringBuilder("(function(){var r=[];");
+        for (JavascriptCommand command : commands) {
+            script.append("try{r.push(JSON.stringify(")
+                    .append(command.toExpression())
+                    .append("));}catch(e){r.push(null);}");
+        }
+        script.append("return r;})();");
+        webView.evaluateJavascript(script.toString(), result -> deliverResults(commands, result));
+    }
+
+    /**
+     * Delivers the results of a batch to the commands inside it.
+     *
+     * @param commands the commands of the batch.
+     * @param result the JSON array that contains the JSON representation of every result.
+     */
+    private void deliverResults(List<JavascriptCommand> commands, @Nullable String result) {
+        sentCommands.removeAll(commands);
+        JSONArray results = null;
+        if (result != null && !"null".equals(result)) {
+            try {
+                results = new JSONArray(result);
+            } catch (JSONException e) {
+                Log.e(TAG, "deliverResults: Failed to parse results: " + result, e);
+            }
+        }
+        for (int i = 0; i < commands.size(); i++) {
+            final String value = results == null || results.isNull(i) ? "null" : results.optString(i);
+            commands.get(i).deliverResult(value);
+        }
+    }
+
+    /**
+     * Applies the commands of the batch headlessly, since they were never sent.
+     */
+    private void dropBatch() {
+        final List<JavascriptCommand> commands = new ArrayList<>(batch);
+        batch.clear();
+        for (JavascriptCommand command : commands) {
+            runHeadless(command);
+        }
+    }
+
+    /**
+     * Runs the initialization on the main thread once the WebView is attached to
+     * window, so that the script of a page that was loaded ahead of time is only
+     * initialized once the SDK uses the WebView.
+     */
     private void runTask(Runnable runnable) {
-        webView.post(() -> {
-            if (ViewCompat.isAttachedToWindow(webView))
+        final int pageCount = releasedPageCount;
+        mainHandler.post(() -> {
+            if (isDestroyed || isReleased || pageCount != releasedPageCount)
+                return;
+            if (ViewCompat.isAttachedToWindow(webView)) {
                 runnable.run();
+            } else {
+                if (deferredInitialization == null)
+                    webView.addOnAttachStateChangeListener(deferredInitializationListener);
+                deferredInitialization = runnable;
+            }
         });
     }
-}
\ No newline at end of file
+
+    /**
+     * The provider of the commands that pass the state of the stars to the script.
+     */
+    interface StateRestorer {
+
+        /**
+         * Creates the commands that restore the current state of the stars into
+         * the page, which are sent before any other command once the script is
+         * initialized.
+         */
+        @NonNull
+        List<JavascriptCommand> createRestoreCommands();
+    }
+}
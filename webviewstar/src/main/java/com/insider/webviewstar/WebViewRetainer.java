@@ -0,0 +1,108 @@
+package com.insider.webviewstar;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.MutableContextWrapper;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.webkit.WebView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * The helpers that move a WebView from the layout of a destroyed activity to the
+ * layout of the recreated one, which is used by {@link WebViewStarSDK} to keep the
+ * loaded page across configuration changes, see
+ * {@link WebViewStarConfig#isConfigurationChangeRetentionEnabled()}.
+ *
+ * A WebView can only be retained if its context is a {@link MutableContextWrapper},
+ * so that it does not keep the destroyed activity while it waits for the new one.
+ */
+final class WebViewRetainer {
+
+    private WebViewRetainer() {}
+
+    /**
+     * Returns a WebView that can be retained in place of the given one. If the given
+     * WebView cannot be retained, but it is inside a layout, it is replaced with a new
+     * WebView that can, which takes over its id and layout params.
+     *
+     * @param webView the WebView passed to the SDK.
+     * @return the WebView that the SDK should use.
+     */
+    @NonNull
+    static WebView toRetainable(@NonNull WebView webView) {
+        if (webView.getContext() instanceof MutableContextWrapper)
+            return webView;
+        if (!(webView.getParent() instanceof ViewGroup))
+            return webView;
+        final WebView retainable = new WebView(new MutableContextWrapper(webView.getContext()));
+        replace(webView, retainable);
+        webView.destroy();
+        return retainable;
+    }
+
+    /**
+     * Determines whether the WebView is detached since its activity is
+     * being recreated for a configuration change.
+     */
+    static boolean isChangingConfigurations(@NonNull WebView webView) {
+        final Activity activity = findActivity(webView.getContext());
+        return activity != null && activity.isChangingConfigurations();
+    }
+
+    /**
+     * Changes the context of the WebView.
+     *
+     * @return false if the context of the WebView cannot be changed.
+     */
+    static boolean setBaseContext(@NonNull WebView webView, @NonNull Context context) {
+        if (!(webView.getContext() instanceof MutableContextWrapper))
+            return false;
+        ((MutableContextWrapper) webView.getContext()).setBaseContext(context);
+        return true;
+    }
+
+    /**
+     * Removes the WebView from its parent, if it has one.
+     */
+    static void removeFromParent(@NonNull WebView webView) {
+        final ViewParent parent = webView.getParent();
+        if (parent instanceof ViewGroup)
+            ((ViewGroup) parent).removeView(webView);
+    }
+
+    /**
+     * Puts the replacement into the parent of the WebView, at the same index
+     * and with the same id and layout params, and removes the WebView.
+     *
+     * @return false if the WebView does not have a parent.
+     */
+    static boolean replace(@NonNull WebView webView, @NonNull WebView replacement) {
+        if (!(webView.getParent() instanceof ViewGroup))
+            return false;
+        final ViewGroup parent = (ViewGroup) webView.getParent();
+        final int index = parent.indexOfChild(webView);
+        final ViewGroup.LayoutParams layoutParams = webView.getLayoutParams();
+        parent.removeViewAt(index);
+        removeFromParent(replacement);
+        replacement.setId(webView.getId());
+        parent.addView(replacement, index, layoutParams);
+        return true;
+    }
+
+    /**
+     * Returns the activity that the context belongs to, if any.
+     */
+    @Nullable
+    static Activity findActivity(@Nullable Context context) {
+        while (context instanceof ContextWrapper) {
+            if (context instanceof Activity)
+                return (Activity) context;
+            context = ((ContextWrapper) context).getBaseContext();
+        }
+        return null;
+    }
+}
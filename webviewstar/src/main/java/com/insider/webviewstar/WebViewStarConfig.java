@@ -0,0 +1,613 @@
+package com.insider.webviewstar;
+
+import android.webkit.WebView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The configuration that can be passed to
+ * {@link WebViewStarSDK#createInstance(WebView, WebViewStarConfig)} to change
+ * how the SDK drives the WebView.
+ *
+ * The configuration is immutable, and should be created using the {@link Builder}.
+ * If no configuration is passed, {@link #getDefault()} is used.
+ */
+public class WebViewStarConfig {
+
+    /**
+     * The maximum value of {@link Builder#setMaxStarCount(int)}.
+     */
+    public static final int MAX_STAR_COUNT_LIMIT = 1 << 24;
+
+    /**
+     * The default value of {@link Builder#setImageCacheSizeBytes(long)}.
+     */
+    public static final long DEFAULT_IMAGE_CACHE_SIZE_BYTES = 4 * 1024 * 1024;
+
+    private static final WebViewStarConfig DEFAULT = new Builder().build();
+
+    private final boolean documentStartInjectionEnabled;
+    private final FlushPolicy commandFlushPolicy;
+    private final int maxBatchSize;
+    private final boolean messagePortTransportEnabled;
+    private final long persistenceWindowMillis;
+    private final StoreType storeType;
+    private final int maxStarCount;
+    private final boolean headlessFallbackEnabled;
+    private final long pageLoadTimeoutMillis;
+    private final boolean imageCacheEnabled;
+    private final long imageCacheSizeBytes;
+    private final boolean imageDownsamplingEnabled;
+    private final boolean configurationChangeRetentionEnabled;
+    private final boolean multipleInstancesEnabled;
+    private final long notificationDelayMillis;
+    @Nullable
+    private final Executor ioExecutor;
+    @Nullable
+    private final Executor computeExecutor;
+
+    private WebViewStarConfig(@NonNull Builder builder) {
+        this.documentStartInjectionEnabled = builder.documentStartInjectionEnabled;
+        this.commandFlushPolicy = builder.commandFlushPolicy;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.messagePortTransportEnabled = builder.messagePortTransportEnabled;
+        this.persistenceWindowMillis = builder.persistenceWindowMillis;
+        this.storeType = builder.storeType;
+        this.maxStarCount = builder.maxStarCount;
+        this.headlessFallbackEnabled = builder.headlessFallbackEnabled;
+        this.pageLoadTimeoutMillis = builder.pageLoadTimeoutMillis;
+        this.imageCacheEnabled = builder.imageCacheEnabled;
+        this.imageCacheSizeBytes = builder.imageCacheSizeBytes;
+        this.imageDownsamplingEnabled = builder.imageDownsamplingEnabled;
+        this.configurationChangeRetentionEnabled = builder.configurationChangeRetentionEnabled;
+        this.multipleInstancesEnabled = builder.multipleInstancesEnabled;
+        this.notificationDelayMillis = builder.notificationDelayMillis;
+        this.ioExecutor = builder.ioExecutor;
+        this.computeExecutor = builder.computeExecutor;
+    }
+
+    /**
+     * Returns the default configuration.
+     */
+    @NonNull
+    public static WebViewStarConfig getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Determines whether the star script should be registered as a document start
+     * script, if the WebView supports it. If the WebView does not support it,
+     * the script is injected after the page finishes loading.
+     *
+     * @return if the document start injection is enabled.
+     */
+    public boolean isDocumentStartInjectionEnabled() {
+        return documentStartInjectionEnabled;
+    }
+
+    /**
+     * Returns the policy that determines when the star function calls are
+     * sent to the WebView.
+     */
+    @NonNull
+    public FlushPolicy getCommandFlushPolicy() {
+        return commandFlushPolicy;
+    }
+
+    /**
+     * Returns the maximum count of calls that are collected before they are sent,
+     * used with {@link FlushPolicy#MAX_BATCH_SIZE}.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Determines whether the star calls and the star changes are sent through
+     * a WebMessage channel, if the device is on API 23 or above.
+     *
+     * @return if the message port transport is enabled.
+     */
+    public boolean isMessagePortTransportEnabled() {
+        return messagePortTransportEnabled;
+    }
+
+    /**
+     * Returns the window in milliseconds, in which the star changes are
+     * coalesced before they are saved to the disk.
+     */
+    public long getPersistenceWindowMillis() {
+        return persistenceWindowMillis;
+    }
+
+    /**
+     * Returns the backend that the stars are saved to.
+     */
+    @NonNull
+    public StoreType getStoreType() {
+        return storeType;
+    }
+
+    /**
+     * Returns the capacity of the sky, a.k.a how many stars can be added
+     * before the "Sky is full." alert is shown.
+     */
+    public int getMaxStarCount() {
+        return maxStarCount;
+    }
+
+    /**
+     * Determines whether the star calls are applied without the WebView when
+     * the page is not available, rather than waiting for it or being dropped.
+     *
+     * @return if the headless fallback is enabled.
+     */
+    public boolean isHeadlessFallbackEnabled() {
+        return headlessFallbackEnabled;
+    }
+
+    /**
+     * Returns the time in milliseconds that the page is given to initialize the
+     * star script, after which the star calls are applied without the WebView,
+     * or 0 if there is no timeout.
+     */
+    public long getPageLoadTimeoutMillis() {
+        return pageLoadTimeoutMillis;
+    }
+
+    /**
+     * Determines whether the star image is served from the disk cache of the SDK,
+     * rather than being loaded by the WebView itself.
+     *
+     * @return if the image cache is enabled.
+     */
+    public boolean isImageCacheEnabled() {
+        return imageCacheEnabled;
+    }
+
+    /**
+     * Returns the cap of the total size of the image cache in bytes.
+     */
+    public long getImageCacheSizeBytes() {
+        return imageCacheSizeBytes;
+    }
+
+    /**
+     * Determines whether the cached star image is downsampled to the width
+     * of the WebView before it is served.
+     *
+     * @return if the image downsampling is enabled.
+     */
+    public boolean isImageDownsamplingEnabled() {
+        return imageDownsamplingEnabled;
+    }
+
+    /**
+     * Determines whether the SDK and its WebView are kept when the activity is
+     * recreated for a configuration change, such as a rotation, so that the page
+     * is neither loaded nor initialized again.
+     *
+     * @return if the configuration change retention is enabled.
+     */
+    public boolean isConfigurationChangeRetentionEnabled() {
+        return configurationChangeRetentionEnabled;
+    }
+
+    /**
+     * Determines whether the SDK instances that are created with this configuration
+     * are kept alongside the existing instances, rather than replacing them.
+     *
+     * @return if the multiple instances are enabled.
+     */
+    public boolean isMultipleInstancesEnabled() {
+        return multipleInstancesEnabled;
+    }
+
+    /**
+     * Returns how long the app should be at background before the star
+     * notification is posted.
+     *
+     * @return the notification delay in milliseconds.
+     */
+    public long getNotificationDelayMillis() {
+        return notificationDelayMillis;
+    }
+
+    /**
+     * Returns the executor that the SDK runs its disk and system service work on.
+     *
+     * @return the IO executor, or null if the SDK creates its own thread.
+     */
+    @Nullable
+    public Executor getIoExecutor() {
+        return ioExecutor;
+    }
+
+    /**
+     * Returns the executor that the SDK runs its background CPU work on.
+     *
+     * @return the compute executor, or null if the SDK creates its own threads.
+     */
+    @Nullable
+    public Executor getComputeExecutor() {
+        return computeExecutor;
+    }
+
+    /**
+     * The policy that determines when the star function calls (such as
+     * {@link WebViewStarSDK#addSmallStar()}) are sent to the WebView.
+     */
+    public enum FlushPolicy {
+
+        /**
+         * Every call is sent to the WebView as its own script evaluation.
+         */
+        IMMEDIATE,
+
+        /**
+         * The calls made within the same frame are sent to the WebView
+         * in a single script evaluation at the next frame.
+         */
+        PER_FRAME,
+
+        /**
+         * Same as {@link #PER_FRAME}, but the calls are sent as soon as
+         * {@link WebViewStarConfig#getMaxBatchSize()} calls are collected, without waiting
+         * for the next frame.
+         */
+        MAX_BATCH_SIZE
+    }
+
+    /**
+     * The backend that the stars are saved to.
+     */
+    public enum StoreType {
+
+        /**
+         * The stars are saved to the shared preferences, which rewrites
+         * all the stars on every change.
+         */
+        PREFERENCES,
+
+        /**
+         * The changes are appended to a journal file, which is compacted
+         * into a snapshot once it grows.
+         */
+        JOURNAL,
+
+        /**
+         * The stars are saved as fixed-size records of a memory-mapped file, so the
+         * changes only write the new stars and the reads do not copy them.
+         */
+        MEMORY_MAPPED
+    }
+
+    /**
+     * The builder for {@link WebViewStarConfig}.
+     */
+    public static class Builder {
+
+        private boolean documentStartInjectionEnabled = true;
+        private FlushPolicy commandFlushPolicy = FlushPolicy.IMMEDIATE;
+        private int maxBatchSize = 32;
+        private boolean messagePortTransportEnabled = true;
+        private long persistenceWindowMillis = 300;
+        private StoreType storeType = StoreType.JOURNAL;
+        private int maxStarCount = 10;
+        private boolean headlessFallbackEnabled = true;
+        private long pageLoadTimeoutMillis = 10_000;
+        private boolean imageCacheEnabled = true;
+        private long imageCacheSizeBytes = DEFAULT_IMAGE_CACHE_SIZE_BYTES;
+        private boolean imageDownsamplingEnabled = false;
+        private boolean configurationChangeRetentionEnabled = false;
+        private boolean multipleInstancesEnabled = false;
+        private long notificationDelayMillis = StarsNotificationScheduler.DEFAULT_DELAY_MILLIS;
+        @Nullable
+        private Executor ioExecutor = null;
+        @Nullable
+        private Executor computeExecutor = null;
+
+        /**
+         * Sets whether the star script should be injected at document start,
+         * so that the star functions are available from the first frame of the page
+         * instead of after the image is fully loaded. Enabled by default.
+         *
+         * @param enabled whether the document start injection is enabled.
+         * @return this builder.
+         */
+        @NonNull
+        public Builder setDocumentStartInjectionEnabled(boolean enabled) {
+            this.documentStartInjectionEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Sets the policy that determines when the star function calls are sent
+         * to the WebView. {@link FlushPolicy#IMMEDIATE} by default.
+         *
+         * @param policy the flush policy.
+         * @return this builder.
+         */
+        @NonNull
+        public Builder setCommandFlushPolicy(@NonNull FlushPolicy policy) {
+            this.commandFlushPolicy = policy;
+            return this;
+        }
+
+        /**
+         * Sets the maximum count of calls that are collected before they are sent,
+         * used with {@link FlushPolicy#MAX_BATCH_SIZE}. 32 by default.
+         *
+         * @param maxBatchSize the maximum batch size, must be positive.
+         * @return this builder.
+         */
+        @NonNull
+        public Builder setMaxBatchSize(int maxBatchSize) {
+            if (maxBatchSize <= 0)
+                throw new IllegalArgumentException("Max batch size must be positive: " + maxBatchSize);
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * Sets whether the star calls and the star changes are sent through a
+         * WebMessage channel, so that the calls are not compiled as script source
+         * and the changes are not received on the JavaBridge thread. Only used on
+         * API 23 and above, otherwise the calls are always evaluated. Enabled by default.
+         *
+         * @param enabled whether the message port transport is enabled.
+         * @return this builder.
+         */
+        @NonNull
+        public Builder setMessagePortTransportEnabled(boolean enabled) {
+            this.messagePortTransportEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Sets the window in which the star changes are coalesced before they are
+         * saved to the disk, so that a burst of changes results in a single write.
+         * The changes are still saved immediately when the stars are reset, or when
+         * the app goes to background. This is a process-wide setting, so the last
+         * created instance determines it. 300 milliseconds by default.
+         *
+         * @param windowMillis the window in milliseconds, 0 to save every change
+         *                     without waiting.
+         * @return this builder.
+         */
+        @NonNull
+        public Builder setPersistenceWindowMillis(long windowMillis) {
+            if (windowMillis < 0)
+                throw new IllegalArgumentException("Persistence window cannot be negative: " + windowMillis);
+            this.persistenceWindowMillis = windowMillis;
+            return this;
+        }
+
+        /**
+         * Sets the backend that the stars are saved to. When the backend is changed,
+         * the saved stars are moved to the new one. This is a process-wide setting,
+         * so the last created instance determines it. {@link StoreType#JOURNAL} by default.
+         *
+         * @param storeType the store type.
+         * @return this builder.
+         */
+        @NonNull
+        public Builder setStoreType(@NonNull StoreType storeType) {
+            this.storeType = storeType;
+            return this;
+        }
+
+        /**
+         * Sets the capacity of the sky, a.k.a how many stars can be added before the
+         * "Sky is full." alert is shown. Every star takes a single byte both inside the
+         * page and inside the SDK, and the changes are synchronized in chunks, so the
+         * capacity can be set up to {@link #MAX_STAR_COUNT_LIMIT}. If the saved stars are
+         * more than the capacity, they are kept, but no star can be added. 10 by default.
+         *
+         * @param maxStarCount the capacity, must be positive and at most
+         *                     {@link #MAX_STAR_COUNT_LIMIT}.
+         * @return this builder.
+         */
+        @NonNull
+        public Builder setMaxStarCount(int maxStarCount) {
+            if (maxStarCount <= 0 || maxStarCount > MAX_STAR_COUNT_LIMIT)
+                throw new IllegalArgumentException("Max star count must be between 1 and "
+                        + MAX_STAR_COUNT_LIMIT + ": " + maxStarCount);
+            this.maxStarCount = maxStarCount;
+            return this;
+        }
+
+        /**
+         * Sets whether the star calls are applied without the WebView when the page is
+         * not available, a.k.a when it fails to load, when it does not initialize
+         * the star script within the page load timeout, or after the WebView is
+         * detached. The stars are then added with the same rules as the page, and
+         * restored into the page once it is initialized. Enabled by default.
+         *
+         * @param enabled whether the headless fallback is enabled.
+         * @return this builder.
+         */
+        @NonNull
+        public Builder setHeadlessFallbackEnabled(boolean enabled) {
+            this.headlessFallbackEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Sets the time that the page is given to initialize the star script after it
+         * starts loading, after which the star calls are applied without the WebView
+         * until the script is initialized. Only used if the headless fallback is
+         * enabled. 10 seconds by default.
+         *
+         * @param timeoutMillis the timeout in milliseconds, 0 to wait for the page
+         *                      as long as it takes.
+         * @return this builder.
+         */
+        @NonNull
+        public Builder setPageLoadTimeoutMillis(long timeoutMillis) {
+            if (timeoutMillis < 0)
+                throw new IllegalArgumentException("Page load timeout cannot be negative: " + timeoutMillis);
+            this.pageLoadTimeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        /**
+         * Sets whether the star image is served from the disk cache of the SDK, so
+         * that it is downloaded once, and the page also loads when the device is
+         * offline. If the image is neither cached nor can be downloaded, the WebView
+         * loads it itself. Enabled by default.
+         *
+         * @param enabled whether the image cache is enabled.
+         * @return this builder.
+         */
+        @NonNull
+        public Builder setImageCacheEnabled(boolean enabled) {
+            this.imageCacheEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Sets the cap of the total size of the image cache, after which the least
+         * recently used images are deleted. This is a process-wide setting, so the
+         * last created instance determines it. {@link #DEFAULT_IMAGE_CACHE_SIZE_BYTES}
+         * by default.
+         *
+         * @param sizeBytes the cap in bytes, must be positive.
+         * @return this builder.
+         */
+        @NonNull
+        public Builder setImageCacheSizeBytes(long sizeBytes) {
+            if (sizeBytes <= 0)
+                throw new IllegalArgumentException("Image cache size must be positive: " + sizeBytes);
+            this.imageCacheSizeBytes = sizeBytes;
+            return this;
+        }
+
+        /**
+         * Sets whether the cached star image is downsampled to the width of the
+         * WebView before it is served, so the page does not decode a larger image
+         * than it can show. The downsampled image is cached separately for every
+         * width. Only used if the image cache is enabled. Disabled by default.
+         *
+         * @param enabled whether the image downsampling is enabled.
+         * @return this builder.
+         */
+        @NonNull
+        public Builder setImageDownsamplingEnabled(boolean enabled) {
+            this.imageDownsamplingEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Sets whether the SDK and its WebView are kept when the activity is recreated
+         * for a configuration change, such as a rotation. The SDK is then not destroyed
+         * when the WebView is detached, and once the recreated activity calls
+         * {@link WebViewStarSDK#createInstance(WebView, WebViewStarConfig)} with the
+         * same configuration, the retained WebView replaces the given one inside its
+         * layout, keeping its id and layout params, and the retained SDK is returned.
+         * The page and the star script are neither loaded nor initialized again.
+         *
+         * To be retained, the WebView is replaced with one that does not keep the
+         * activity as its context when it is first passed to the SDK, unless it is
+         * obtained from {@link WebViewStarPool}. The replaced WebViews are destroyed,
+         * so the WebView in use should be read with {@link WebViewStarSDK#getWebView()}.
+         * Disabled by default.
+         *
+         * @param enabled whether the configuration change retention is enabled.
+         * @return this builder.
+         */
+        @NonNull
+        public Builder setConfigurationChangeRetentionEnabled(boolean enabled) {
+            this.configurationChangeRetentionEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Sets whether {@link WebViewStarSDK#createInstance(WebView, WebViewStarConfig)}
+         * keeps the existing SDK instances, so that multiple WebViews, such as the ones
+         * of two screens or of a list, show the stars at the same time. Every instance
+         * is destroyed once its own WebView is detached.
+         *
+         * The instances share the same stars, which are saved once for all of them.
+         * While more than one instance is live, the star calls are applied to the
+         * shared stars, and the change is sent to every live WebView. An instance that
+         * is created with this disabled still destroys all the existing instances.
+         * Disabled by default.
+         *
+         * @param enabled whether the multiple instances are enabled.
+         * @return this builder.
+         */
+        @NonNull
+        public Builder setMultipleInstancesEnabled(boolean enabled) {
+            this.multipleInstancesEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Sets how long the app should be at background before the star notification
+         * is posted. The notification is posted by a timer inside the process, and
+         * only scheduled with the WorkManager if the process is likely to be killed
+         * before the delay ends. This is a process-wide setting, so the last created
+         * instance determines it. 5 seconds by default.
+         *
+         * @param delayMillis the notification delay in milliseconds, must not be negative.
+         * @return this builder.
+         */
+        @NonNull
+        public Builder setNotificationDelayMillis(long delayMillis) {
+            if (delayMillis < 0)
+                throw new IllegalArgumentException("Notification delay cannot be negative: " + delayMillis);
+            this.notificationDelayMillis = delayMillis;
+            return this;
+        }
+
+        /**
+         * Sets the executor that the SDK runs its disk and system service work on,
+         * such as saving the stars and posting the notification, so that an app that
+         * already tunes its thread count does not get another thread. The SDK still
+         * runs this work one task at a time, in order, so the executor may be shared
+         * and concurrent. This is a process-wide setting, so the first instance that
+         * sets an executor determines it, and the executors of the instances created
+         * afterwards are ignored. By default, the SDK creates a single thread once it
+         * is needed, which exits while idle.
+         *
+         * @param executor the IO executor, or null to use the thread of the SDK.
+         * @return this builder.
+         */
+        @NonNull
+        public Builder setIoExecutor(@Nullable Executor executor) {
+            this.ioExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Sets the executor that the SDK runs its background CPU work on, such as
+         * preparing the star script once the page is loaded. The executor must not
+         * run the tasks on the main thread. This is a process-wide setting, so the
+         * first instance that sets an executor determines it, and the executors of the
+         * instances created afterwards are ignored. By default, the SDK creates up to
+         * two threads once they are needed, which exit while idle.
+         *
+         * @param executor the compute executor, or null to use the threads of the SDK.
+         * @return this builder.
+         */
+        @NonNull
+        public Builder setComputeExecutor(@Nullable Executor executor) {
+            this.computeExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Builds the configuration.
+         *
+         * @return the configuration.
+         */
+        @NonNull
+        public WebViewStarConfig build() {
+            return new WebViewStarConfig(this);
+        }
+    }
+}
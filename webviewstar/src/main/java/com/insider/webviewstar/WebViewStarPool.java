@@ -0,0 +1,283 @@
+package com.insider.webviewstar;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.MutableContextWrapper;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.webkit.WebView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * The optional pool of WebViews that have the star page loaded ahead of time, so
+ * that {@link WebViewStarSDK#createInstance(WebView, WebViewStarConfig)} does not pay for
+ * the start-up of the WebView and a cold page load when the host creates its screen.
+ *
+ * The pool is used as follows:
+ *
+ * 1) {@link #prewarm(Context, WebViewStarConfig, int)} is called once, usually in
+ * {@link android.app.Application#onCreate()}, which creates the WebViews one by one
+ * when the main thread is idle, and loads the star page into them,
+ * 2) {@link #obtain(Context)} returns one of the WebViews for the given context,
+ * which the host adds to its layout,
+ * 3) The SDK is created with that WebView and the same configuration, and takes
+ * the loaded page over. The WebView is not returned to the pool afterwards.
+ *
+ * The pool is refilled on idle after a WebView is obtained, unless the device is low
+ * on memory. When the process is asked to trim memory, the idle WebViews are
+ * destroyed, see {@link #onTrimMemory(int)}.
+ *
+ * The WebViews are only created and accessed on the main thread.
+ */
+public final class WebViewStarPool implements ComponentCallbacks2 {
+
+    private static final String TAG = WebViewStarPool.class.getSimpleName();
+
+    /**
+     * The maximum size of the pool, since every WebView holds a renderer
+     * and the memory of its page.
+     */
+    public static final int MAX_POOL_SIZE = 3;
+
+    private static final Object sLock = new Object();
+
+    private static WebViewStarPool INSTANCE;
+
+    private final Context context;
+    private final Handler mainHandler = StarExecutors.getMainHandler();
+    private final Deque<PooledWebView> webViews = new ArrayDeque<>();
+
+    @Nullable
+    private WebViewStarConfig config;
+    private int maxSize = 0;
+    private boolean isFillScheduled = false;
+
+    private WebViewStarPool(@NonNull Context context) {
+        this.context = context.getApplicationContext();
+        this.context.registerComponentCallbacks(this);
+    }
+
+    private static WebViewStarPool getInstance(@NonNull Context context) {
+        synchronized (sLock) {
+            if (INSTANCE == null)
+                INSTANCE = new WebViewStarPool(context);
+            return INSTANCE;
+        }
+    }
+
+    /**
+     * Starts filling the pool with WebViews that have the star page loaded
+     * with the given configuration. The WebViews are created on the main thread
+     * when it is idle, one at a time, so the start-up of the app is not delayed.
+     *
+     * If the pool was already filled with a different configuration, the
+     * idle WebViews are replaced.
+     *
+     * @param context any context, preferably application context.
+     * @param config the configuration that the SDK will be created with.
+     * @param size the size of the pool, between 1 and {@link #MAX_POOL_SIZE}.
+     */
+    public static void prewarm(@NonNull Context context, @NonNull WebViewStarConfig config, int size) {
+        if (size <= 0 || size > MAX_POOL_SIZE)
+            throw new IllegalArgumentException("Pool size must be between 1 and " + MAX_POOL_SIZE + ": " + size);
+        final WebViewStarPool pool = getInstance(context);
+        pool.mainHandler.post(() -> pool.setUp(config, size));
+    }
+
+    /**
+     * Starts filling the pool with a single WebView that has the star page
+     * loaded with the default configuration.
+     *
+     * @param context any context, preferably application context.
+     * @see #prewarm(Context, WebViewStarConfig, int)
+     */
+    public static void prewarm(@NonNull Context context) {
+        prewarm(context, WebViewStarConfig.getDefault(), 1);
+    }
+
+    /**
+     * Returns a WebView for the given context, which has the star page already
+     * loaded if the pool is not empty. The context of the WebView is a
+     * {@link MutableContextWrapper}, so it can be retained across configuration
+     * changes, see {@link WebViewStarConfig#isConfigurationChangeRetentionEnabled()}. Otherwise, a new WebView is returned, and the
+     * SDK loads the page into it as usual. Must be called on the main thread.
+     *
+     * @param context the context of the screen that the WebView will be added to.
+     * @return the WebView, which should be passed to
+     * {@link WebViewStarSDK#createInstance(WebView, WebViewStarConfig)}.
+     */
+    @NonNull
+    public static WebView obtain(@NonNull Context context) {
+        return getInstance(context).take(context);
+    }
+
+    /**
+     * Destroys the idle WebViews, and stops filling the pool
+     * until it is prewarmed again.
+     */
+    public static void clear() {
+        final WebViewStarPool pool;
+        synchronized (sLock) {
+            pool = INSTANCE;
+        }
+        if (pool != null)
+            pool.mainHandler.post(() -> {
+                pool.maxSize = 0;
+                pool.evict(0);
+            });
+    }
+
+    /**
+     * Returns the star page that was loaded into the WebView by the pool, if
+     * it was loaded with the given configuration. Otherwise, any page that was
+     * loaded is removed, and a new page is set up on the WebView.
+     *
+     * @param webView the WebView that the SDK is created with.
+     * @param config the configuration of the SDK.
+     * @return the page of the WebView.
+     */
+    @NonNull
+    static StarPage takePage(@NonNull WebView webView, @NonNull WebViewStarConfig config) {
+        if (webView instanceof PooledWebView) {
+            final StarPage page = ((PooledWebView) webView).takePage();
+            if (page != null && page.getConfig() == config)
+                return page;
+            if (page != null) {
+                Log.d(TAG, "takePage: The pooled page was loaded with a different configuration.");
+                page.destroy();
+            }
+        }
+        return new StarPage(webView, config);
+    }
+
+    private void setUp(@NonNull WebViewStarConfig config, int size) {
+        if (this.config != config)
+            evict(0);
+        this.config = config;
+        this.maxSize = size;
+        scheduleFill();
+    }
+
+    private WebView take(@NonNull Context context) {
+        final PooledWebView webView = webViews.pollFirst();
+        if (webView == null)
+            return new WebView(new MutableContextWrapper(context));
+        ((MutableContextWrapper) webView.getContext()).setBaseContext(context);
+        scheduleFill();
+        return webView;
+    }
+
+    /**
+     * Creates the missing WebViews one at a time, whenever the main thread is idle.
+     */
+    private void scheduleFill() {
+        if (isFillScheduled || webViews.size() >= maxSize || isLowOnMemory())
+            return;
+        isFillScheduled = true;
+        Looper.myQueue().addIdleHandler(() -> {
+            if (config == null || webViews.size() >= maxSize || isLowOnMemory()) {
+                isFillScheduled = false;
+                return false;
+            }
+            try {
+                final PooledWebView webView = new PooledWebView(new MutableContextWrapper(context), config);
+                webViews.addLast(webView);
+            } catch (RuntimeException e) {
+                // The WebView package may be missing or being updated.
+                Log.e(TAG, "scheduleFill: Failed to create WebView", e);
+                isFillScheduled = false;
+                return false;
+            }
+            isFillScheduled = webViews.size() < maxSize;
+            return isFillScheduled;
+        });
+    }
+
+    private boolean isLowOnMemory() {
+        final ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager == null)
+            return false;
+        final ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        activityManager.getMemoryInfo(memoryInfo);
+        return memoryInfo.lowMemory || activityManager.isLowRamDevice();
+    }
+
+    /**
+     * Destroys the idle WebViews until the given count is left.
+     */
+    private void evict(int remainingCount) {
+        while (webViews.size() > remainingCount) {
+            final PooledWebView webView = webViews.pollLast();
+            final StarPage page = webView.takePage();
+            if (page != null)
+                page.destroy();
+            webView.destroy();
+        }
+    }
+
+    /**
+     * Shrinks the pool depending on the level:
+     *
+     * 1) {@link #TRIM_MEMORY_RUNNING_MODERATE} keeps a single WebView,
+     * 2) {@link #TRIM_MEMORY_RUNNING_LOW}, {@link #TRIM_MEMORY_RUNNING_CRITICAL} and
+     * the levels from {@link #TRIM_MEMORY_BACKGROUND} destroy all the idle WebViews.
+     *
+     * {@link #TRIM_MEMORY_UI_HIDDEN} keeps the pool, since it only means that the
+     * app went to background. The pool is refilled once a WebView is obtained.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        final int remainingCount;
+        if (level >= TRIM_MEMORY_BACKGROUND
+                || level == TRIM_MEMORY_RUNNING_LOW
+                || level == TRIM_MEMORY_RUNNING_CRITICAL)
+            remainingCount = 0;
+        else if (level == TRIM_MEMORY_RUNNING_MODERATE)
+            remainingCount = 1;
+        else
+            return;
+        mainHandler.post(() -> evict(remainingCount));
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+
+    @Override
+    public void onLowMemory() {
+        mainHandler.post(() -> evict(0));
+    }
+
+    /**
+     * The WebView that is created by the pool, whose context can be changed to
+     * the context of the screen that obtains it, and which holds its loaded
+     * page until the SDK takes it.
+     */
+    private static final class PooledWebView extends WebView {
+
+        @Nullable
+        private StarPage page;
+
+        PooledWebView(@NonNull MutableContextWrapper context, @NonNull WebViewStarConfig config) {
+            super(context);
+            page = new StarPage(this, config);
+            page.load();
+        }
+
+        @Nullable
+        StarPage takePage() {
+            final StarPage result = page;
+            page = null;
+            return result;
+        }
+    }
+}
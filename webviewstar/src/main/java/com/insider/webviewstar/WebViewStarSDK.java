@@ -1,18 +1,22 @@
 package com.insider.webviewstar;
 
 import android.annotation.SuppressLint;
-import android.app.Activity;
 import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.os.Handler;
 import android.util.Log;
 import android.view.View;
-import android.webkit.ConsoleMessage;
-import android.webkit.WebChromeClient;
 import android.webkit.WebView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.view.ViewCompat;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
 /**
  * The core SDK that is responsible for attaching the provided WebView
  * to give functions such as:
@@ -23,11 +27,25 @@ import androidx.core.view.ViewCompat;
  * 4) Resetting the stars.
  *
  * The existing alive SDK can be accessed via {@link #getInstance()} and
- * the SDK can be created with a WebView passed using {@link #createInstance(WebView)}.
+ * the SDK can be created with a WebView passed using {@link #createInstance(WebView)},
+ * or {@link #createInstance(WebView, WebViewStarConfig)} to change the defaults.
+ *
+ * The WebView can also be obtained from {@link WebViewStarPool}, in which case
+ * the star page is already loaded into it.
  *
  * The SDK is configured to destroy itself once a new instance is created
  * using {@link #createInstance(WebView)}, or after the WebView itself
- * is detached from window.
+ * is detached from window. If the multiple instances are enabled, the existing
+ * instances are kept instead, and all of them show the same stars, see
+ * {@link WebViewStarConfig#isMultipleInstancesEnabled()}. If the configuration change retention is enabled,
+ * the SDK is kept when the WebView is detached for a configuration change
+ * instead, and it is returned again by the next {@link #createInstance(WebView,
+ * WebViewStarConfig)}, see {@link WebViewStarConfig#isConfigurationChangeRetentionEnabled()}.
+ *
+ * Under memory pressure, the SDK pauses the WebView once the app goes to background,
+ * and releases the star page if the system asks for more, which is rebuilt from the
+ * saved state once the app goes to foreground or a star function is called again,
+ * see {@link StarMemoryReport}.
  *
  * Public functions are exposed to manage the WebView JS star array
  * manipulations. The console logs can be checked using "onConsoleMessage"
@@ -35,60 +53,147 @@ import androidx.core.view.ViewCompat;
  *
  * @see #addSmallStar()
  * @see #addBigStar()
+ * @see #addSmallStars(int)
+ * @see #addBigStars(int)
+ * @see #apply(StarTransaction)
  * @see #reset()
+ * @see #getStatistics()
+ * @see #addStarChangeListener(StarChangeListener)
+ * @see #getLastMemoryReport()
  */
 public class WebViewStarSDK {
 
-    private static final String URL = "https://img.etimg.com/thumb/msid-72948091,width-650,imgsize-95069,,resizemode-4,quality-100/star_istock.jpg";
+    static final String URL = "https://img.etimg.com/thumb/msid-72948091,width-650,imgsize-95069,,resizemode-4,quality-100/star_istock.jpg";
     private static final String TAG = WebViewStarSDK.class.getSimpleName();
 
+    /**
+     * How long the heap is given to shrink after the memory is trimmed,
+     * before it is measured again for the {@link StarMemoryReport}.
+     */
+    private static final long MEMORY_REPORT_DELAY_MILLIS = 1000;
     private static final Object sLock = new Object();
 
     /**
-     * This static instance should not create a memory leak, due to the existing
+     * These static instances should not create a memory leak, due to every
      * instance being destroyed with {@link #destroy()}
-     * being called after the WebView is detached from window.
-     * It will also destroy itself if another instance is
-     * created using {@link #createInstance(WebView)}.
+     * being called after its WebView is detached from window.
+     * They will also destroy themselves if another instance is
+     * created using {@link #createInstance(WebView)}, unless the multiple
+     * instances are enabled. The last created instance is the last one.
      */
     @SuppressLint("StaticFieldLeak")
-    private static WebViewStarSDK sInstance;
+    private static final List<WebViewStarSDK> sInstances = new ArrayList<>();
+
+    /**
+     * The listener that schedules the notification, which is shared by
+     * all the instances, see {@link #initializeLifecycleCallbacks()}.
+     */
+    private static ProcessLifecycleTracker.Listener sNotificationListener;
 
     private final Application application;
-    private final StarWebViewClient webViewClient;
+    private final WebViewStarConfig config;
+    private final StarPage page;
     private final WebViewFunctionManager functionManager;
+    private final StarChangeDispatcher changeDispatcher;
+    private final StarStateHub stateHub;
+
+    /**
+     * The listener that resumes the page of this instance once
+     * the app goes to foreground, see {@link StarPage#resume()}.
+     */
+    private final ProcessLifecycleTracker.Listener lifecycleListener =
+            new ProcessLifecycleTracker.Listener() {
+                @Override
+                public void onForeground() {
+                    if (!isDestroyed)
+                        page.resume();
+                }
+
+                @Override
+                public void onBackground() {
+                }
+            };
+    private final Handler mainHandler = StarExecutors.getMainHandler();
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            trimMemory(level);
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            // Delivered while the app may be at foreground, so the page
+            // that the user is looking at is neither paused nor released.
+            trimMemory(TRIM_MEMORY_RUNNING_CRITICAL);
+        }
+    };
+
+    @Nullable
+    private volatile StarMemoryReport lastMemoryReport;
 
     @Nullable
     private WebView webView;
 
     private boolean isDestroyed = false;
 
-    private WebViewStarSDK(@NonNull WebView webView) {
+    /**
+     * Whether the WebView was detached for a configuration change, and the SDK
+     * is waiting for the recreated activity to attach it again.
+     */
+    private boolean isRetained = false;
+
+    private WebViewStarSDK(@NonNull WebView webView, @NonNull WebViewStarConfig config) {
         this.webView = webView;
+        this.config = config;
         this.application = (Application) webView.getContext().getApplicationContext();
 
-        functionManager = new WebViewFunctionManager(webView);
-        webViewClient = new StarWebViewClient(() ->
-                JavascriptInitializer.initialize(webView, functionManager));
+        page = WebViewStarPool.takePage(webView, config);
+        functionManager = page.getFunctionManager();
+        changeDispatcher = new StarChangeDispatcher(StarModel.getInstance(application));
+        stateHub = StarStateHub.getInstance(application);
+        stateHub.attach(functionManager);
         init();
 
         synchronized (sLock) {
-            sInstance = this;
+            sInstances.add(this);
         }
     }
 
     /**
-     * Gets the existing alive instance if there is one.
+     * Gets the last created alive instance if there is one. Since the instances
+     * share the same stars, any of them can be used to change the stars.
      *
-     * @return the existing alive instance if there is one.
+     * @return the last created alive instance if there is one.
      */
     @Nullable
     static WebViewStarSDK getInstance() {
         synchronized (sLock) {
-            if (sInstance != null && !sInstance.isDestroyed)
-                return sInstance;
-            else
-                return null;
+            for (int i = sInstances.size() - 1; i >= 0; i--) {
+                if (!sInstances.get(i).isDestroyed)
+                    return sInstances.get(i);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Gets all the alive instances, in the order that they were created.
+     *
+     * @return the alive instances.
+     */
+    @NonNull
+    static List<WebViewStarSDK> getInstances() {
+        synchronized (sLock) {
+            final List<WebViewStarSDK> instances = new ArrayList<>(sInstances.size());
+            for (WebViewStarSDK instance : sInstances) {
+                if (!instance.isDestroyed)
+                    instances.add(instance);
+            }
+            return instances;
         }
     }
 
@@ -100,9 +205,58 @@ public class WebViewStarSDK {
      * @return the SDK.
      */
     public static WebViewStarSDK createInstance(WebView webView) {
-        if (getInstance() != null)
-            getInstance().destroy();
-        return new WebViewStarSDK(webView);
+        return createInstance(webView, WebViewStarConfig.getDefault());
+    }
+
+    /**
+     * Creates an instance (destroys the previous instances if there are any, unless
+     * the multiple instances are enabled) using the WebView and the configuration provided.
+     *
+     * If {@link WebViewStarConfig#isConfigurationChangeRetentionEnabled()}, the SDK may
+     * use another WebView than the given one, which then replaces it inside its layout,
+     * keeping its id and layout params, and the given WebView is destroyed:
+     *
+     * 1) When the SDK is first created, unless the context of the given WebView is
+     * a {@link android.content.MutableContextWrapper}, such as the WebViews obtained
+     * from {@link WebViewStarPool#obtain(android.content.Context)}, since the WebView
+     * would otherwise keep the activity while it is retained,
+     * 2) When the recreated activity passes its WebView, which is replaced by the
+     * retained one.
+     *
+     * The references to the given WebView should then not be used afterwards, and the
+     * WebView that the SDK uses should be read with {@link #getWebView()} instead.
+     *
+     * @param webView the web view inside the layout, or in code.
+     * @param config the configuration of the SDK.
+     * @return the SDK.
+     */
+    public static WebViewStarSDK createInstance(WebView webView, WebViewStarConfig config) {
+        for (WebViewStarSDK instance : getInstances()) {
+            if (!instance.isRetainedFor(webView, config))
+                continue;
+            if (instance.config == config && instance.reattach(webView))
+                return instance;
+            instance.destroy();
+        }
+        if (!config.isMultipleInstancesEnabled()) {
+            for (WebViewStarSDK instance : getInstances())
+                instance.destroy();
+        }
+        return new WebViewStarSDK(config.isConfigurationChangeRetentionEnabled()
+                ? WebViewRetainer.toRetainable(webView)
+                : webView, config);
+    }
+
+    /**
+     * Returns the WebView that the SDK shows the stars in, which is not the one that
+     * was passed to {@link #createInstance(WebView, WebViewStarConfig)} if it was
+     * replaced for the configuration change retention.
+     *
+     * @return the WebView, or null if the SDK is destroyed.
+     */
+    @Nullable
+    public WebView getWebView() {
+        return webView;
     }
 
     /**
@@ -119,110 +273,264 @@ public class WebViewStarSDK {
      * Adds a small star, once the SDK and WebView is available,
      * a.k.a when the URL is loaded successfully and the JS
      * was injected correctly.
+     *
+     * @return the future that completes once the star is added, or with
+     * {@link StarResult.FailureReason#SKY_FULL} if the sky is full.
      */
-    public void addSmallStar() {
-        functionManager.call("addSmallStar");
+    @NonNull
+    public StarFuture addSmallStar() {
+        return call(PendingCommandBuffer.ADD_SMALL_STAR, null);
     }
 
     /**
      * Adds a big star, once the SDK and WebView is available,
      * a.k.a when the URL is loaded successfully and the JS
      * was injected correctly.
+     *
+     * @return the future that completes once the star is added, or with
+     * {@link StarResult.FailureReason#SKY_FULL} if the sky is full.
      */
-    public void addBigStar() {
-        functionManager.call("addBigStar");
+    @NonNull
+    public StarFuture addBigStar() {
+        return call(PendingCommandBuffer.ADD_BIG_STAR, null);
+    }
+
+    /**
+     * Adds the given count of small stars as a single change, once the SDK and
+     * WebView is available. The stars are added until the sky is full.
+     *
+     * @param count the star count, must not be negative.
+     * @return the future that completes once the stars are added.
+     */
+    @NonNull
+    public StarFuture addSmallStars(int count) {
+        if (count < 0)
+            throw new IllegalArgumentException("Star count cannot be negative: " + count);
+        if (count == 0)
+            return StarFuture.completed(StarResult.success(StarModel.getInstance(application).getCount()));
+        return call(PendingCommandBuffer.ADD_SMALL_STARS, String.valueOf(count));
+    }
+
+    /**
+     * Adds the given count of big stars as a single change, once the SDK and
+     * WebView is available. The stars are added until the sky is full.
+     *
+     * @param count the star count, must not be negative.
+     * @return the future that completes once the stars are added.
+     */
+    @NonNull
+    public StarFuture addBigStars(int count) {
+        if (count < 0)
+            throw new IllegalArgumentException("Star count cannot be negative: " + count);
+        if (count == 0)
+            return StarFuture.completed(StarResult.success(StarModel.getInstance(application).getCount()));
+        return call(PendingCommandBuffer.ADD_BIG_STARS, String.valueOf(count));
+    }
+
+    /**
+     * Applies the operations of the transaction as a single change, once the SDK and
+     * WebView is available. The operations are sent in a single script evaluation, and
+     * saved with a single write. If the stars do not fit into the sky, the
+     * {@link StarTransaction.OverflowPolicy} of the transaction is used.
+     *
+     * @param transaction the transaction to be applied.
+     * @return the future that completes once the transaction is applied, or with
+     * {@link StarResult.FailureReason#REJECTED} if it was rejected.
+     */
+    @NonNull
+    public StarFuture apply(@NonNull StarTransaction transaction) {
+        if (transaction.isEmpty())
+            return StarFuture.completed(StarResult.success(StarModel.getInstance(application).getCount()));
+        return call(PendingCommandBuffer.APPLY_OPERATIONS, transaction.toArgument());
     }
 
     /**
      * Resets the stars (a.k.a clears the data), once the SDK and WebView is available,
      * a.k.a when the URL is loaded successfully and the JS
      * was injected correctly.
+     *
+     * @return the future that completes once the stars are reset.
+     */
+    @NonNull
+    public StarFuture reset() {
+        StarsPersister.getInstance(application).flush();
+        return call(PendingCommandBuffer.RESET, null);
+    }
+
+    /**
+     * Returns the statistics of the stars, such as the counts by size, color and
+     * brightness. The statistics are kept on the native side and updated on every
+     * change, so they are available immediately, even before the WebView is
+     * initialized, in which case they contain the stars saved by the previous sessions.
+     *
+     * @return the statistics of the current stars.
+     */
+    @NonNull
+    public StarStatistics getStatistics() {
+        return StarModel.getInstance(application).getSnapshot().getStatistics();
+    }
+
+    /**
+     * Adds the listener, which is called on the main thread after the stars change,
+     * using {@link StarChangeListener.BackpressurePolicy#COALESCE}.
+     *
+     * @param listener the listener.
+     * @see #addStarChangeListener(Executor, StarChangeListener.BackpressurePolicy, StarChangeListener)
+     */
+    public void addStarChangeListener(@NonNull StarChangeListener listener) {
+        addStarChangeListener(StarExecutors.main(),
+                StarChangeListener.BackpressurePolicy.COALESCE, listener);
+    }
+
+    /**
+     * Adds the listener, which is called on the executor after the stars change.
+     * The listener receives the diffs, a.k.a the added stars and the resets, of the
+     * changes made after it is added, rather than all the stars.
+     *
+     * The changes are only recorded on the thread that applied them, and a listener
+     * has at most a single delivery posted to its executor, so a slow listener never
+     * delays the WebView. The changes made while the listener is busy are merged or
+     * dropped according to the policy. The listeners are removed once the SDK is
+     * destroyed.
+     *
+     * @param executor the executor that the listener is called on.
+     * @param policy the policy of the changes made while the listener is busy.
+     * @param listener the listener.
+     */
+    public void addStarChangeListener(@NonNull Executor executor,
+                                      @NonNull StarChangeListener.BackpressurePolicy policy,
+                                      @NonNull StarChangeListener listener) {
+        if (isDestroyed)
+            return;
+        changeDispatcher.addListener(executor, policy, listener);
+    }
+
+    /**
+     * Removes the listener. If a change is being delivered to the listener, the
+     * delivery is not interrupted, but no other change is delivered afterwards.
+     *
+     * @param listener the listener that was added.
      */
-    public void reset() {
-        functionManager.call("reset");
+    public void removeStarChangeListener(@NonNull StarChangeListener listener) {
+        changeDispatcher.removeListener(listener);
+    }
+
+    /**
+     * Returns the report of the last time the memory was trimmed, which tells
+     * what was released, and how much the heap shrank afterwards.
+     *
+     * @return the report, or null if the memory was not trimmed yet.
+     */
+    @Nullable
+    public StarMemoryReport getLastMemoryReport() {
+        return lastMemoryReport;
+    }
+
+    /**
+     * Calls the star function, completing the returned future with its result.
+     */
+    private StarFuture call(String functionName, @Nullable String argument) {
+        final StarFuture future = new StarFuture();
+        functionManager.call(functionName, argument, result -> future.complete(StarResult.fromJson(result)));
+        return future;
     }
 
     /**
      * Initializes the SDK.
      */
     private void init() {
+        StarExecutors.setExecutors(config.getIoExecutor(), config.getComputeExecutor());
         StarsNotificationPoster.initialize(application);
+        final StarsPersister persister = StarsPersister.getInstance(application);
+        persister.setWindowMillis(config.getPersistenceWindowMillis());
+        persister.setStoreType(config.getStoreType());
 
-        // Cancel here too since it might post a notification between 5 seconds.
-        StarsNotificationWorker.cancelWorker(application);
+        // Cancel here too since it might post a notification within the delay.
+        final StarsNotificationScheduler scheduler = StarsNotificationScheduler.getInstance(application);
+        scheduler.setDelayMillis(config.getNotificationDelayMillis());
+        scheduler.cancel();
 
         initializeWebView();
         initializeLifecycleCallbacks();
+        application.registerComponentCallbacks(memoryCallbacks);
     }
 
     /**
-     * Initializes the WebView.
+     * Initializes the WebView, by loading the star page once it is attached
+     * to window. If the page was already loaded by {@link WebViewStarPool},
+     * it is not loaded again.
      */
     private void initializeWebView() {
-        if (webView != null) {
-            webView.getSettings().setJavaScriptEnabled(true);
-            webView.getSettings().setLoadWithOverviewMode(true);
-            webView.getSettings().setUseWideViewPort(true);
-            webView.addJavascriptInterface(new StarsManager(webView.getContext().getApplicationContext(),
-                    functionManager), "starsManager");
-            webView.setWebViewClient(webViewClient);
-            webView.setWebChromeClient(new WebChromeClient()
-            {
-                @Override
-                public boolean onConsoleMessage(ConsoleMessage consoleMessage) {
-                    Log.i(TAG, "onConsoleMessage: " + consoleMessage.message());
-                    return true;
-                }
-            });
-            doOnAttach(() -> webView.loadUrl(URL));
-        }
+        doOnAttach(() -> {
+            page.load();
+            functionManager.startPageLoadTimeout();
+        });
     }
 
     /**
-     * Initializes the lifecycle callbacks. By default, the app will be
-     * considered as foreground at initialization.
+     * Initializes the lifecycle callbacks, by adding the listeners to the
+     * process-wide {@link ProcessLifecycleTracker}. The notification listener
+     * is only added once, however many instances are created. The tracker is seeded
+     * with the importance of the process and the activity of the WebView, if it is
+     * registered by this instance.
      */
     private void initializeLifecycleCallbacks() {
-        application.registerActivityLifecycleCallbacks(new ActivityLifecycleCallbacksAdapter() {
-
-            private int foregroundCount = 0;
-            private boolean isForeground = true;
+        final ProcessLifecycleTracker tracker = ProcessLifecycleTracker.getInstance(application,
+                WebViewRetainer.findActivity(webView.getContext()));
+        synchronized (sLock) {
+            if (sNotificationListener == null) {
+                sNotificationListener = createNotificationListener(application);
+                tracker.addListener(sNotificationListener);
+            }
+        }
+        tracker.addListener(lifecycleListener);
+    }
 
+    /**
+     * Creates the listener that saves the stars and schedules the notification when
+     * the app goes to background, and cancels the notification when it goes to
+     * foreground.
+     */
+    private static ProcessLifecycleTracker.Listener createNotificationListener(
+            @NonNull Application application) {
+        return new ProcessLifecycleTracker.Listener() {
             @Override
-            public void onActivityStarted(@NonNull Activity activity) {
-                foregroundCount++;
-                if (foregroundCount > 0 && !isForeground) {
-                    isForeground = true;
-                    onForeground();
-                }
+            public void onForeground() {
+                StarsNotificationScheduler.getInstance(application).cancel();
+                StarsNotificationPoster.cancelNotification(application);
             }
 
             @Override
-            public void onActivityStopped(@NonNull Activity activity) {
-                foregroundCount = Math.min(0, foregroundCount - 1);
-                if (foregroundCount == 0 && isForeground) {
-                    isForeground = false;
-                    onBackground();
-                }
+            public void onBackground() {
+                StarsPersister.getInstance(application).flush();
+                StarsNotificationScheduler.getInstance(application).schedule();
             }
-        });
+        };
     }
 
     /**
-     * Called when the app goes to background.
+     * Trims the memory depending on the level, see {@link StarMemoryReport}, and
+     * reports what was released after {@link #MEMORY_REPORT_DELAY_MILLIS}.
+     * Called on the main thread.
+     *
+     * @param level the level passed to {@link ComponentCallbacks2#onTrimMemory(int)}.
      */
-    private void onBackground() {
-        StarsNotificationWorker.createWorker(application);
-    }
+    private void trimMemory(int level) {
+        if (isDestroyed)
+            return;
 
-    /**
-     * Called when the app goes to foreground.
-     * By default, the app will be considered as at foreground at initialization
-     * state.
-     */
-    private void onForeground() {
-        StarsNotificationWorker.cancelWorker(application);
-        StarsNotificationPoster.cancelNotification(application);
+        final long heapBytesBefore = StarMemoryReport.getHeapBytes();
+        StarsPersister.getInstance(application).flush();
+        final boolean isPageReleased = level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                && page.release();
+        final boolean isPagePaused = isPageReleased
+                || (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN && page.pause());
+        mainHandler.postDelayed(() -> {
+            final StarMemoryReport report = new StarMemoryReport(level, isPagePaused, isPageReleased,
+                    heapBytesBefore, StarMemoryReport.getHeapBytes());
+            lastMemoryReport = report;
+            Log.i(TAG, "trimMemory: " + report);
+        }, MEMORY_REPORT_DELAY_MILLIS);
     }
 
     /**
@@ -235,18 +543,54 @@ public class WebViewStarSDK {
             return;
 
         isDestroyed = true;
-        webViewClient.onDestroy();
-        if (webView != null) {
-            webView.setWebViewClient(null);
-            webView.setWebChromeClient(null);
-            webView.removeJavascriptInterface("starsManager");
-            webView.loadUrl("about:blank");
+        synchronized (sLock) {
+            sInstances.remove(this);
         }
+        stateHub.detach(functionManager);
+        ProcessLifecycleTracker.getInstance(application, null).removeListener(lifecycleListener);
+        application.unregisterComponentCallbacks(memoryCallbacks);
+        page.destroy();
+        changeDispatcher.close();
         webView = null;
     }
 
     /**
-     * Performs the task after the {@link #webView} is attached to window.
+     * Determines whether the SDK was retained for the activity that inflated the
+     * given WebView. With multiple instances, the retained WebView is matched by
+     * its id, since it keeps the id of the WebView that it replaced.
+     */
+    private boolean isRetainedFor(@NonNull WebView placeholder, @NonNull WebViewStarConfig config) {
+        if (!isRetained || webView == null)
+            return false;
+        return !config.isMultipleInstancesEnabled() || webView.getId() == placeholder.getId();
+    }
+
+    /**
+     * Moves the retained WebView into the layout of the given WebView, which is
+     * inflated by the recreated activity, and replaces it.
+     *
+     * @param placeholder the WebView inside the layout of the recreated activity.
+     * @return false if the placeholder is not inside a layout.
+     */
+    private boolean reattach(@NonNull WebView placeholder) {
+        final WebView retainedWebView = webView;
+        if (retainedWebView == null || retainedWebView == placeholder)
+            return retainedWebView != null;
+        if (!WebViewRetainer.setBaseContext(retainedWebView, placeholder.getContext()))
+            return false;
+        WebViewRetainer.removeFromParent(retainedWebView);
+        if (!WebViewRetainer.replace(placeholder, retainedWebView)) {
+            WebViewRetainer.setBaseContext(retainedWebView, application);
+            return false;
+        }
+        placeholder.destroy();
+        isRetained = false;
+        return true;
+    }
+
+    /**
+     * Performs the task after the {@link #webView} is attached to window, and
+     * destroys the SDK once it is detached, unless it is retained.
      *
      * @param task the task to be run.
      */
@@ -254,24 +598,56 @@ public class WebViewStarSDK {
         if (webView == null)
             return;
 
-        if (ViewCompat.isAttachedToWindow(webView)) {
+        final boolean isAttached = ViewCompat.isAttachedToWindow(webView);
+        if (isAttached)
             task.run();
-        } else {
-            webView.addOnAttachStateChangeListener(new View.OnAttachStateChangeListener() {
-                @Override
-                public void onViewAttachedToWindow(View view) {
+        webView.addOnAttachStateChangeListener(new View.OnAttachStateChangeListener() {
+
+            private boolean isTaskRun = isAttached;
+
+            @Override
+            public void onViewAttachedToWindow(View view) {
+                if (!isTaskRun) {
+                    isTaskRun = true;
                     task.run();
+                } else {
+                    functionManager.onReattached();
                 }
+            }
 
-                @Override
-                public void onViewDetachedFromWindow(View view) {
-                    // RecyclerView or any type of adapter view case could be
-                    // handled here using a getParent() loop by determining
-                    // the parent if necessary. Currently, it is not handled.
-                    destroy();
-                    view.removeOnAttachStateChangeListener(this);
+            @Override
+            public void onViewDetachedFromWindow(View view) {
+                if (retain()) {
+                    // The WebView is removed from the destroyed layout after
+                    // the detach traversal, so it does not keep the layout.
+                    mainHandler.post(() -> {
+                        if (isRetained)
+                            WebViewRetainer.removeFromParent((WebView) view);
+                    });
+                    return;
                 }
-            });
-        }
+                // RecyclerView or any type of adapter view case could be
+                // handled here using a getParent() loop by determining
+                // the parent if necessary. Currently, it is not handled.
+                destroy();
+                view.removeOnAttachStateChangeListener(this);
+            }
+        });
+    }
+
+    /**
+     * Retains the SDK if the WebView is detached for a configuration change,
+     * and the retention is enabled.
+     *
+     * @return true if the SDK is retained.
+     */
+    private boolean retain() {
+        if (webView == null || !config.isConfigurationChangeRetentionEnabled()
+                || !WebViewRetainer.isChangingConfigurations(webView))
+            return false;
+        if (!WebViewRetainer.setBaseContext(webView, application))
+            return false;
+        isRetained = true;
+        return true;
     }
 }
\ No newline at end of file
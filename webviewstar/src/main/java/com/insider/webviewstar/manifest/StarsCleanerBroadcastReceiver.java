@@ -14,8 +14,14 @@ import com.insider.webviewstar.StarsCleanerWorker;
  */
 public class StarsCleanerBroadcastReceiver extends BroadcastReceiver {
 
+    /**
+     * Clears the stars directly on the IO lane of the SDK, keeping the
+     * broadcast alive until the store is cleared, see
+     * {@link StarsCleanerWorker#clearStars(Context, Runnable)}.
+     */
     @Override
     public void onReceive(Context context, Intent intent) {
-        StarsCleanerWorker.createWorker(context);
+        final PendingResult result = goAsync();
+        StarsCleanerWorker.clearStars(context, result::finish);
     }
 }
\ No newline at end of file
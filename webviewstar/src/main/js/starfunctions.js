@@ -0,0 +1,331 @@
+// The stars are kept as their codes (see StarCodec), so every star is a single byte.
+// The storage grows by doubling as the stars are added, and shrinks back on reset.
+var INITIAL_STAR_STORAGE = 16;
+var starCodes = new Uint8Array(INITIAL_STAR_STORAGE);
+var starCount = 0;
+// Updated on every change, so the stars are not counted again after each change.
+var brightStarCount = 0;
+// Set by the SDK via setMaxStarSize before the stars are initialized.
+var maxStarSize = 10;
+
+// The changes are sent to the SDK in chunks of this many stars, so that a
+// single message stays small however many stars there are.
+var SYNC_CHUNK_SIZE = 65536;
+// The added stars are only logged as JSON up to this count.
+var LOG_LIMIT = 100;
+
+// The port that is posted by the SDK through the "starsBridge" message,
+// see MessagePortBridge for the message format.
+var bridgePort = null;
+var RECORD_SEPARATOR = "\u001E";
+var UNIT_SEPARATOR = "\u001F";
+
+class Random {
+    static nextInt(seed) {
+        return Math.floor(Math.random() * seed);
+    }
+}
+
+class StarCreator {
+
+    static getBrightness(randomValue) {
+        return randomValue == 0 ? "Bright" : "Not so much";
+    }
+
+    static createBigStar() {
+        return StarCodec.fromCode(StarCreator.createBigStarCode());
+    }
+
+    static createSmallStar() {
+        return StarCodec.fromCode(StarCreator.createSmallStarCode());
+    }
+
+    // The colors are picked from StarCodec.BIG_COLORS, and the brightness is "Bright" for 0.
+    static createBigStarCode() {
+        return 1 | (Random.nextInt(3) << 1) | (Random.nextInt(2) << 3);
+    }
+
+    // The colors are picked from StarCodec.SMALL_COLORS, and the brightness is "Bright" for 0.
+    static createSmallStarCode() {
+        return (Random.nextInt(3) << 1) | (Random.nextInt(2) << 3);
+    }
+
+    static createStars(jsonString) {
+        let model = JSON.parse(jsonString)
+        let stars = [];
+        model.forEach(item => {
+            stars.push(new Star(item.size, item.color, item.brightness));
+        });
+        return stars;
+    }
+}
+
+class Star {
+    constructor(size, color, brightness) {
+        this.size = size;
+        this.color = color;
+        this.brightness = brightness;
+    }
+}
+
+// The compact codec that is shared with the StarCodec class of the SDK.
+// Every star is a byte: bit 0 is the size, bits 1-2 are the color index
+// and bit 3 is the brightness. The text is "1:" followed by the base64 of the bytes.
+class StarCodec {
+
+    static get PREFIX() { return "1:"; }
+    static get SMALL_COLORS() { return ["Red", "Blue", "Green"]; }
+    static get BIG_COLORS() { return ["Yellow", "Purple", "Gray"]; }
+
+    static toCode(star) {
+        let big = star.size == "B";
+        let colors = big ? StarCodec.BIG_COLORS : StarCodec.SMALL_COLORS;
+        return (big ? 1 : 0) | (colors.indexOf(star.color) << 1) | (star.brightness == "Bright" ? 0 : 8);
+    }
+
+    static fromCode(code) {
+        let big = (code & 1) == 1;
+        let colors = big ? StarCodec.BIG_COLORS : StarCodec.SMALL_COLORS;
+        return new Star(big ? "B" : "S", colors[(code >> 1) & 3], (code & 8) == 0 ? "Bright" : "Not so much");
+    }
+
+    // Encodes the codes from the start index up to the end index.
+    static encode(codes, start, end) {
+        let bytes = "";
+        for (let i = start; i < end; i += 8192)
+            bytes += String.fromCharCode.apply(null, codes.subarray(i, Math.min(end, i + 8192)));
+        return StarCodec.PREFIX + btoa(bytes);
+    }
+
+    // Decodes the text into the codes.
+    static decode(text) {
+        if (!text)
+            return new Uint8Array(0);
+        // The JSON format of the previous versions.
+        if (text.charAt(0) == "[")
+            return Uint8Array.from(StarCreator.createStars(text), StarCodec.toCode);
+        let bytes = atob(text.substring(StarCodec.PREFIX.length));
+        let codes = new Uint8Array(bytes.length);
+        for (let i = 0; i < bytes.length; i++) {
+            codes[i] = bytes.charCodeAt(i);
+        }
+        return codes;
+    }
+}
+
+function setMaxStarSize(size) {
+    maxStarSize = parseInt(size);
+}
+
+function ensureStarStorage(count) {
+    if (count <= starCodes.length)
+        return;
+    let length = starCodes.length;
+    while (length < count)
+        length *= 2;
+    let codes = new Uint8Array(length);
+    codes.set(starCodes.subarray(0, starCount));
+    starCodes = codes;
+}
+
+function pushStarCode(code) {
+    starCodes[starCount++] = code;
+    if ((code & 8) == 0)
+        brightStarCount++;
+}
+
+function addStar(createStarCode) {
+    return addStars(createStarCode, 1);
+}
+
+function logToConsole(offset) {
+    if (starCount - offset <= LOG_LIMIT)
+        console.log(JSON.stringify(Array.from(starCodes.subarray(offset, starCount), StarCodec.fromCode)));
+    console.log("Bright stars count: " + brightStarCount + ", total stars count: " + starCount);
+}
+
+function addBigStar() {
+    return addStar(StarCreator.createBigStarCode);
+}
+
+function addSmallStar() {
+    return addStar(StarCreator.createSmallStarCode);
+}
+
+function addStars(createStarCode, count) {
+    let offset = starCount;
+    let added = appendStars(createStarCode, count);
+    if (added > 0) {
+        notifyStarsChanged(offset);
+        logToConsole(offset);
+    }
+    if (added < count)
+        alert("Sky is full.");
+    return starResult(added, count, false);
+}
+
+// The result that is returned to the SDK by the star functions, see StarResult.
+function starResult(added, requested, rejected) {
+    return {added: added, requested: requested, count: starCount, rejected: rejected};
+}
+
+// Appends the stars until the sky is full, without notifying the SDK.
+// Returns the count of the added stars.
+function appendStars(createStarCode, count) {
+    let added = Math.max(0, Math.min(count, maxStarSize - starCount));
+    ensureStarStorage(starCount + added);
+    for (let i = 0; i < added; i++)
+        pushStarCode(createStarCode());
+    return added;
+}
+
+function clearStars() {
+    starCodes = new Uint8Array(INITIAL_STAR_STORAGE);
+    starCount = 0;
+    brightStarCount = 0;
+}
+
+// Applies the operations of a StarTransaction as a single change, such as "reject|R,S3,B2",
+// where "R" resets the stars, and "S" and "B" add that many small and big stars.
+// If the stars do not fit, the operations are applied until the sky is full with the
+// "partial" policy, or not applied at all with the "reject" policy.
+// The operations before the last reset are not visible afterwards, so they are neither
+// applied nor counted. Returns the result with the count of the requested and added
+// stars after the last reset, which the headless engine of the SDK returns too.
+function applyStarOperations(argument) {
+    let separator = argument.indexOf("|");
+    let policy = argument.substring(0, separator);
+    let operations = argument.substring(separator + 1).split(",").filter(operation => operation != "");
+    let isReset = operations.lastIndexOf("R") >= 0;
+    operations = operations.slice(operations.lastIndexOf("R") + 1);
+
+    let requested = 0;
+    operations.forEach(operation => requested += parseInt(operation.substring(1)));
+    let finalCount = (isReset ? 0 : starCount) + requested;
+    if (requested > 0 && finalCount > maxStarSize && policy == "reject") {
+        alert("Sky is full.");
+        return starResult(0, requested, true);
+    }
+
+    if (isReset)
+        clearStars();
+    let offset = starCount;
+    let added = 0;
+    operations.forEach(operation => {
+        let createStarCode = operation.charAt(0) == "B" ? StarCreator.createBigStarCode : StarCreator.createSmallStarCode;
+        added += appendStars(createStarCode, parseInt(operation.substring(1)));
+    });
+    if (isReset || added > 0) {
+        notifyStarsChanged(offset);
+        logToConsole(offset);
+    }
+    if (added < requested)
+        alert("Sky is full.");
+    return starResult(added, requested, false);
+}
+
+function addBigStars(count) {
+    return addStars(StarCreator.createBigStarCode, parseInt(count));
+}
+
+function addSmallStars(count) {
+    return addStars(StarCreator.createSmallStarCode, parseInt(count));
+}
+
+// Restores the stars that are saved by the SDK, so the SDK is not notified.
+// Large skies are restored in chunks, the first one with this function and
+// the rest with loadStars.
+function initializeStars(starsString) {
+    clearStars();
+    loadStars(starsString);
+}
+
+function loadStars(starsString) {
+    let offset = starCount;
+    let codes = StarCodec.decode(starsString);
+    ensureStarStorage(starCount + codes.length);
+    codes.forEach(pushStarCode);
+    logToConsole(offset);
+}
+
+// Applies a change of the stars that was made outside of this page, such as by
+// another WebView sharing the stars, in the same "offset;text" format as the changes
+// sent to the SDK. The SDK is not notified, since the change came from it.
+function syncStars(change) {
+    let separator = change.indexOf(";");
+    let offset = Math.min(starCount, parseInt(change.substring(0, separator)));
+    for (let i = offset; i < starCount; i++) {
+        if ((starCodes[i] & 8) == 0)
+            brightStarCount--;
+    }
+    starCount = offset;
+    loadStars(change.substring(separator + 1));
+}
+
+function reset() {
+    clearStars();
+    notifyStarsChanged(0);
+    logToConsole(0);
+    return starResult(0, 0, false);
+}
+
+// Sends the stars from the offset to the SDK, as "offset;text" messages, each of which
+// means that the stars after the offset are replaced with the stars of the text.
+function notifyStarsChanged(offset) {
+    let start = offset;
+    do {
+        let end = Math.min(starCount, start + SYNC_CHUNK_SIZE);
+        postStarsChange(start + ";" + StarCodec.encode(starCodes, start, end));
+        start = end;
+    } while (start < starCount);
+}
+
+function postStarsChange(change) {
+    if (bridgePort != null)
+        bridgePort.postMessage("s" + UNIT_SEPARATOR + change);
+    else
+        starsManager.onStarsChanged(change);
+}
+
+// The functions that can be called through the bridge port.
+var bridgeFunctions = {
+    addBigStar: addBigStar,
+    addSmallStar: addSmallStar,
+    addBigStars: addBigStars,
+    addSmallStars: addSmallStars,
+    applyStarOperations: applyStarOperations,
+    initializeStars: initializeStars,
+    loadStars: loadStars,
+    setMaxStarSize: setMaxStarSize,
+    syncStars: syncStars,
+    reset: reset
+};
+
+function onBridgeMessage(event) {
+    event.data.split(RECORD_SEPARATOR).forEach(record => {
+        let fields = record.split(UNIT_SEPARATOR);
+        let id = fields[0];
+        let fn = bridgeFunctions[fields[1]];
+        let result = null;
+        if (fn) {
+            try {
+                result = fn(fields[2]);
+            } catch (e) {
+                console.log("Failed to call " + fields[1] + ": " + e);
+            }
+        }
+        if (id !== "")
+            bridgePort.postMessage("r" + UNIT_SEPARATOR + id + UNIT_SEPARATOR + JSON.stringify(result === undefined ? null : result));
+    });
+}
+
+// The app posts the port without a source window, so the message of the page
+// itself, or of any of its frames, can never take over the port. Once the port is
+// listened to, it is acknowledged, and only then the SDK sends the calls through it.
+window.addEventListener("message", event => {
+    if (event.source !== null || event.data !== "starsBridge" || event.ports.length === 0)
+        return;
+    bridgePort = event.ports[0];
+    bridgePort.onmessage = onBridgeMessage;
+    bridgePort.postMessage("a" + UNIT_SEPARATOR + starScriptVersion);
+});
@@ -0,0 +1,54 @@
+package com.insider.webviewstar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class MappedStarStoreTest extends StarStoreContractTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Override
+    protected StarStore openStore() throws IOException {
+        return new MappedStarStore(folder.getRoot());
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidCountIsRejected() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(
+                new File(folder.getRoot(), MappedStarStore.FILE_NAME), "rw")) {
+            file.seek(8);
+            file.writeInt(Integer.MAX_VALUE);
+        }
+        openStore();
+    }
+
+    @Test
+    public void replacedStarsAreReadAfterReopening() throws IOException {
+        final File directory = folder.newFolder();
+        final MappedStarStore store = new MappedStarStore(directory);
+        store.append(new byte[]{1, 2, 3}, 0, 3);
+        store.replace(new byte[]{4, 5});
+        assertArrayEquals(new byte[]{4, 5}, store.getStars());
+
+        // The store is still usable after the file was swapped.
+        store.append(new byte[]{6}, 0, 1);
+        store.close();
+
+        assertFalse(new File(directory, MappedStarStore.TEMP_FILE_NAME).exists());
+        final MappedStarStore reopened = new MappedStarStore(directory);
+        try {
+            assertArrayEquals(new byte[]{4, 5, 6}, reopened.getStars());
+        } finally {
+            reopened.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.insider.webviewstar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests how {@link PendingCommandBuffer} coalesces the calls that are made
+ * before the star script is initialized.
+ */
+public class PendingCommandBufferTest {
+
+    private final PendingCommandBuffer buffer = new PendingCommandBuffer();
+    private final List<String> results = new ArrayList<>();
+
+    @Test
+    public void identicalAdditionsAreCounted() {
+        offer(PendingCommandBuffer.ADD_SMALL_STAR);
+        offer(PendingCommandBuffer.ADD_SMALL_STAR);
+        offer(PendingCommandBuffer.ADD_SMALL_STAR);
+
+        final List<JavascriptCommand> commands = buffer.open();
+
+        assertEquals(1, commands.size());
+        assertEquals("addSmallStars('3')", commands.get(0).toExpression());
+        assertEquals(2, buffer.getCoalescedCount());
+    }
+
+    @Test
+    public void differentAdditionsKeepTheirOrder() {
+        offer(PendingCommandBuffer.ADD_SMALL_STAR);
+        offer(PendingCommandBuffer.ADD_BIG_STAR);
+        offer(PendingCommandBuffer.ADD_SMALL_STAR);
+
+        final List<JavascriptCommand> commands = buffer.open();
+
+        assertEquals(3, commands.size());
+        assertEquals("addSmallStar()", commands.get(0).toExpression());
+        assertEquals("addBigStar()", commands.get(1).toExpression());
+        assertEquals("addSmallStar()", commands.get(2).toExpression());
+        assertEquals(0, buffer.getCoalescedCount());
+    }
+
+    @Test
+    public void resetSupersedesEarlierAdditions() {
+        offer(PendingCommandBuffer.ADD_SMALL_STAR);
+        offer(PendingCommandBuffer.ADD_SMALL_STAR);
+        offer(PendingCommandBuffer.ADD_BIG_STARS);
+        offer(PendingCommandBuffer.APPLY_OPERATIONS);
+        offer(PendingCommandBuffer.RESET);
+        offer(PendingCommandBuffer.ADD_BIG_STAR);
+
+        final List<JavascriptCommand> commands = buffer.open();
+
+        assertEquals(2, commands.size());
+        assertEquals("reset()", commands.get(0).toExpression());
+        assertEquals("addBigStar()", commands.get(1).toExpression());
+        // The merged addition counts once when merged, and both of its calls when superseded.
+        assertEquals(5, buffer.getCoalescedCount());
+        assertEquals(4, results.size());
+        for (String result : results)
+            assertEquals(JavascriptCommand.RESULT_SUPERSEDED, result);
+    }
+
+    @Test
+    public void consecutiveResetsAreMerged() {
+        offer(PendingCommandBuffer.RESET);
+        offer(PendingCommandBuffer.RESET);
+
+        final List<JavascriptCommand> commands = buffer.open();
+
+        assertEquals(1, commands.size());
+        assertEquals("reset()", commands.get(0).toExpression());
+        assertEquals(1, buffer.getCoalescedCount());
+    }
+
+    @Test
+    public void resetMergesEarlierResetOnceAdditionsAreSuperseded() {
+        offer(PendingCommandBuffer.RESET);
+        offer(PendingCommandBuffer.ADD_SMALL_STAR);
+        offer(PendingCommandBuffer.RESET);
+
+        final List<JavascriptCommand> commands = buffer.open();
+
+        assertEquals(1, commands.size());
+        assertEquals("reset()", commands.get(0).toExpression());
+        assertEquals(2, buffer.getCoalescedCount());
+    }
+
+    @Test
+    public void openBufferRejectsCommands() {
+        assertTrue(offer(PendingCommandBuffer.ADD_SMALL_STAR));
+
+        buffer.open();
+
+        assertFalse(offer(PendingCommandBuffer.ADD_SMALL_STAR));
+        assertEquals(0, buffer.open().size());
+    }
+
+    private boolean offer(String functionName) {
+        return buffer.offer(new JavascriptCommand(functionName, null, results::add));
+    }
+}
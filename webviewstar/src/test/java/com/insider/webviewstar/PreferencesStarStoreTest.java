@@ -0,0 +1,67 @@
+package com.insider.webviewstar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class PreferencesStarStoreTest extends StarStoreContractTest {
+
+    private final FakeSharedPreferences preferences = new FakeSharedPreferences();
+
+    @Override
+    protected StarStore openStore() {
+        return new PreferencesStarStore(preferences);
+    }
+
+    @Test
+    public void readsCodecDataOfPreviousVersions() {
+        preferences.edit().putString(PreferencesStarStore.DATA, "1:CAgEBA0JBQ==").commit();
+
+        assertArrayEquals(new byte[]{8, 8, 4, 4, 13, 9, 5}, openStore().getStars());
+    }
+
+    @Test
+    public void migratesJsonDataOfPreviousVersions() {
+        preferences.edit().putString(PreferencesStarStore.DATA,
+                "[{\"size\":\"B\",\"color\":\"Purple\",\"brightness\":\"Not so much\"},"
+                        + "{\"size\":\"S\",\"color\":\"Red\",\"brightness\":\"Bright\"}]").commit();
+
+        assertArrayEquals(new byte[]{11, 0}, openStore().getStars());
+        assertEquals("1:CwA=", preferences.getString(PreferencesStarStore.DATA, null));
+    }
+
+    @Test
+    public void keepsDataThatCannotBeMigrated() throws Exception {
+        final String invalid = "[{\"size\":\"Huge\",\"color\":\"Red\",\"brightness\":\"Bright\"}]";
+        preferences.edit().putString(PreferencesStarStore.DATA, invalid).commit();
+
+        final StarStore store = openStore();
+        assertEquals(0, store.getCount());
+        store.append(new byte[]{1}, 0, 1);
+
+        assertEquals(invalid, preferences.getString(PreferencesStarStore.DATA_BACKUP, null));
+        assertArrayEquals(new byte[]{1}, openStore().getStars());
+    }
+
+    @Test
+    public void keepsDataThatIsNotJson() {
+        preferences.edit().putString(PreferencesStarStore.DATA, "not json").commit();
+
+        assertEquals(0, openStore().getCount());
+        assertEquals("not json", preferences.getString(PreferencesStarStore.DATA_BACKUP, null));
+        assertNull(preferences.getString(PreferencesStarStore.DATA, null));
+    }
+
+    @Test
+    public void clearRemovesData() throws Exception {
+        final PreferencesStarStore store = new PreferencesStarStore(preferences);
+        store.append(new byte[]{1}, 0, 1);
+        store.clear();
+
+        assertFalse(PreferencesStarStore.hasData(preferences));
+        assertEquals(0, openStore().getCount());
+    }
+}
@@ -0,0 +1,92 @@
+package com.insider.webviewstar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the encoded format of {@link StarCodec}, which is shared with the star
+ * script, and the migration of the JSON format of the previous versions.
+ */
+public class StarCodecTest {
+
+    private static final byte SMALL_RED_BRIGHT = 0;
+    private static final byte BIG_PURPLE_DIM = 11;
+    private static final byte SMALL_GREEN_DIM = 12;
+
+    @Test
+    public void encodesEveryPadding() {
+        assertEquals("1:", StarCodec.encode(new byte[0], 0));
+        assertEquals("1:Cw==", StarCodec.encode(new byte[]{BIG_PURPLE_DIM}, 1));
+        assertEquals("1:CwA=", StarCodec.encode(new byte[]{BIG_PURPLE_DIM, SMALL_RED_BRIGHT}, 2));
+        assertEquals("1:CwAM", StarCodec.encode(
+                new byte[]{BIG_PURPLE_DIM, SMALL_RED_BRIGHT, SMALL_GREEN_DIM}, 3));
+    }
+
+    @Test
+    public void encodesRange() {
+        final byte[] stars = {SMALL_RED_BRIGHT, BIG_PURPLE_DIM, SMALL_GREEN_DIM};
+
+        assertEquals(StarCodec.encode(new byte[]{BIG_PURPLE_DIM, SMALL_GREEN_DIM}, 2),
+                StarCodec.encode(stars, 1, 2));
+    }
+
+    @Test
+    public void decodesWhatIsEncoded() {
+        for (int count = 0; count < 8; count++) {
+            final byte[] stars = new byte[count];
+            for (int i = 0; i < count; i++)
+                stars[i] = (byte) (i % 16);
+            final String text = StarCodec.encode(stars, count);
+
+            assertArrayEquals(stars, StarCodec.decode(text));
+            assertEquals(count, StarCodec.count(text));
+        }
+    }
+
+    @Test
+    public void emptyTextHasNoStars() {
+        assertArrayEquals(new byte[0], StarCodec.decode(""));
+        assertArrayEquals(new byte[0], StarCodec.decode(null));
+        assertEquals(0, StarCodec.count(""));
+        assertTrue(StarCodec.isEncoded(""));
+    }
+
+    @Test
+    public void invalidTextIsRejected() {
+        assertNull(StarCodec.decode("2:Cw=="));
+        assertNull(StarCodec.decode("1:Cw="));
+        assertNull(StarCodec.decode("1:C!=="));
+        assertEquals(-1, StarCodec.count("1:Cw="));
+        assertFalse(StarCodec.isEncoded("[]"));
+    }
+
+    @Test
+    public void migratesJson() {
+        final String json = "[{\"size\":\"S\",\"color\":\"Red\",\"brightness\":\"Bright\"},"
+                + "{\"size\":\"B\",\"color\":\"Purple\",\"brightness\":\"Not so much\"},"
+                + "{\"size\":\"S\",\"color\":\"Green\",\"brightness\":\"Not so much\"}]";
+
+        assertArrayEquals(new byte[]{SMALL_RED_BRIGHT, BIG_PURPLE_DIM, SMALL_GREEN_DIM},
+                StarCodec.decode(StarCodec.fromJson(json)));
+        assertEquals("1:", StarCodec.fromJson("[]"));
+    }
+
+    @Test
+    public void invalidJsonIsNotMigrated() {
+        assertNull(StarCodec.fromJson("not json"));
+        assertNull(StarCodec.fromJson("[{\"size\":\"S\",\"color\":\"Yellow\",\"brightness\":\"Bright\"}]"));
+        assertNull(StarCodec.fromJson("[{\"size\":\"B\",\"color\":\"Gray\"}]"));
+    }
+
+    @Test
+    public void codesFollowTheBitLayout() {
+        assertEquals(SMALL_RED_BRIGHT, StarCodec.toCode(StarCodec.SMALL, "Red", StarCodec.BRIGHT));
+        assertEquals(BIG_PURPLE_DIM, StarCodec.toCode(StarCodec.BIG, "Purple", StarCodec.NOT_BRIGHT));
+        assertEquals(-1, StarCodec.toCode("M", "Red", StarCodec.BRIGHT));
+    }
+}
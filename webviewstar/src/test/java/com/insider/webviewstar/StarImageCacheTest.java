@@ -0,0 +1,218 @@
+package com.insider.webviewstar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link StarImageCache} against a local HTTP server that stands in for
+ * the image host, so the downloads and the offline starts can be observed.
+ */
+public class StarImageCacheTest {
+
+    private static final byte[] IMAGE = {1, 2, 3, 4, 5, 6, 7, 8};
+    private static final byte[] OTHER_IMAGE = {9, 8, 7, 6, 5, 4, 3, 2};
+    private static final byte[] DOWNSAMPLED = {42};
+    private static final int ENTRY_SIZE = 12 + IMAGE.length;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger downsampleCount = new AtomicInteger();
+    private final CountDownLatch slowRequestStarted = new CountDownLatch(1);
+    private final CountDownLatch slowResponseAllowed = new CountDownLatch(1);
+
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/star.jpg", exchange -> respond(exchange, 200, IMAGE));
+        server.createContext("/other.jpg", exchange -> respond(exchange, 200, OTHER_IMAGE));
+        server.createContext("/missing.jpg", exchange -> respond(exchange, 404, new byte[0]));
+        server.createContext("/slow.jpg", exchange -> {
+            slowRequestStarted.countDown();
+            try {
+                slowResponseAllowed.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, OTHER_IMAGE);
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void imageIsDownloadedOnce() {
+        final StarImageCache cache = createCache(1024);
+
+        final StarImageCache.Image first = cache.get(baseUrl + "/star.jpg", 0);
+        final StarImageCache.Image second = cache.get(baseUrl + "/star.jpg", 0);
+
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals("image/jpeg", first.mimeType);
+        assertArrayEquals(IMAGE, first.data);
+        assertArrayEquals(IMAGE, second.data);
+        assertEquals(1, requestCount.get());
+    }
+
+    @Test
+    public void cachedImageIsServedOffline() {
+        createCache(1024).get(baseUrl + "/star.jpg", 0);
+        server.stop(0);
+
+        final StarImageCache.Image image = createCache(1024).get(baseUrl + "/star.jpg", 0);
+
+        assertNotNull(image);
+        assertArrayEquals(IMAGE, image.data);
+    }
+
+    @Test
+    public void cachedVersionOfAnotherWidthIsServedOffline() {
+        createCache(1024).get(baseUrl + "/star.jpg", 100);
+        for (File file : folder.getRoot().listFiles()) {
+            // Only the downsampled version is left.
+            if (!file.getName().endsWith("_100.img"))
+                assertTrue(file.delete());
+        }
+        server.stop(0);
+
+        final StarImageCache.Image image = createCache(1024).get(baseUrl + "/star.jpg", 200);
+
+        assertNotNull(image);
+        assertArrayEquals(DOWNSAMPLED, image.data);
+    }
+
+    @Test
+    public void missingImageIsNotCached() {
+        final StarImageCache cache = createCache(1024);
+
+        assertNull(cache.get(baseUrl + "/missing.jpg", 0));
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void downsampledImageIsCachedSeparately() {
+        final StarImageCache cache = createCache(1024);
+
+        final StarImageCache.Image downsampled = cache.get(baseUrl + "/star.jpg", 100);
+        final StarImageCache.Image again = cache.get(baseUrl + "/star.jpg", 100);
+        final StarImageCache.Image original = cache.get(baseUrl + "/star.jpg", 0);
+
+        assertNotNull(downsampled);
+        assertNotNull(again);
+        assertNotNull(original);
+        assertEquals(StarImageCache.Downsampler.MIME_TYPE, downsampled.mimeType);
+        assertArrayEquals(DOWNSAMPLED, again.data);
+        assertArrayEquals(IMAGE, original.data);
+        assertEquals(1, requestCount.get());
+        assertEquals(1, downsampleCount.get());
+    }
+
+    @Test
+    public void imageThatIsNotWiderIsServedAsIs() {
+        final StarImageCache cache = createCache(1024);
+
+        final StarImageCache.Image image = cache.get(baseUrl + "/star.jpg", 10_000);
+
+        assertNotNull(image);
+        assertArrayEquals(IMAGE, image.data);
+    }
+
+    @Test
+    public void leastRecentlyUsedImageIsEvicted() {
+        // An entry is the MIME type written as UTF (12 bytes) and the image,
+        // so only a single entry fits into the cap.
+        final StarImageCache cache = createCache(ENTRY_SIZE + ENTRY_SIZE / 2);
+        cache.get(baseUrl + "/star.jpg", 0);
+        for (File file : folder.getRoot().listFiles())
+            assertTrue(file.setLastModified(System.currentTimeMillis() - 10_000));
+
+        cache.get(baseUrl + "/other.jpg", 0);
+        cache.get(baseUrl + "/star.jpg", 0);
+
+        assertEquals(3, requestCount.get());
+        assertEquals(ENTRY_SIZE, cache.getSizeBytes());
+    }
+
+    @Test
+    public void downloadDoesNotBlockOtherImages() throws Exception {
+        final StarImageCache cache = createCache(1024);
+        cache.get(baseUrl + "/star.jpg", 0);
+
+        final Thread slowThread = new Thread(() -> cache.get(baseUrl + "/slow.jpg", 0));
+        slowThread.start();
+        assertTrue(slowRequestStarted.await(5, TimeUnit.SECONDS));
+
+        // The cached image and the size are read while the other image is downloaded.
+        final StarImageCache.Image image = cache.get(baseUrl + "/star.jpg", 0);
+        assertNotNull(image);
+        assertArrayEquals(IMAGE, image.data);
+        assertEquals(ENTRY_SIZE, cache.getSizeBytes());
+
+        slowResponseAllowed.countDown();
+        slowThread.join(5_000);
+        assertEquals(2 * ENTRY_SIZE, cache.getSizeBytes());
+    }
+
+    @Test
+    public void clearDeletesEverything() {
+        final StarImageCache cache = createCache(1024);
+        cache.get(baseUrl + "/star.jpg", 0);
+
+        cache.clear();
+
+        assertEquals(0, cache.getSizeBytes());
+        cache.get(baseUrl + "/star.jpg", 0);
+        assertEquals(2, requestCount.get());
+    }
+
+    private StarImageCache createCache(long maxSizeBytes) {
+        return new StarImageCache(folder.getRoot(), maxSizeBytes, (image, targetWidth) -> {
+            if (targetWidth >= 1000)
+                return null;
+            downsampleCount.incrementAndGet();
+            return DOWNSAMPLED;
+        });
+    }
+
+    private void respond(com.sun.net.httpserver.HttpExchange exchange, int status, byte[] body)
+            throws IOException {
+        requestCount.incrementAndGet();
+        exchange.getResponseHeaders().set("Content-Type", "image/jpeg; charset=binary");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.insider.webviewstar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class StarJournalTest extends StarStoreContractTest {
+
+    /**
+     * The size of the journal header: magic, format version and generation.
+     */
+    private static final int HEADER_SIZE = 4 + 1 + 8;
+
+    /**
+     * The size of a record of a single star: type, payload length, payload and CRC32.
+     */
+    private static final int SINGLE_RECORD_SIZE = 1 + 4 + 1 + 4;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Override
+    protected StarStore openStore() throws IOException {
+        return new StarJournal(folder.getRoot());
+    }
+
+    @Test
+    public void truncatedLastRecordIsDropped() throws IOException {
+        final File directory = folder.newFolder();
+        final StarJournal journal = new StarJournal(directory);
+        journal.append(new byte[]{1}, 0, 1);
+        journal.append(new byte[]{2, 3}, 0, 2);
+        journal.close();
+
+        final File journalFile = new File(directory, StarJournal.JOURNAL_FILE_NAME);
+        setLength(journalFile, journalFile.length() - 2);
+
+        final StarJournal replayed = new StarJournal(directory);
+        assertArrayEquals(new byte[]{1}, replayed.getStars());
+        assertEquals(HEADER_SIZE + SINGLE_RECORD_SIZE, journalFile.length());
+
+        // The records written after the dropped one are replayed.
+        replayed.append(new byte[]{4}, 0, 1);
+        replayed.close();
+        assertArrayEquals(new byte[]{1, 4}, reopen(directory));
+    }
+
+    @Test
+    public void corruptMiddleRecordDropsTheRest() throws IOException {
+        final File directory = folder.newFolder();
+        final StarJournal journal = new StarJournal(directory);
+        journal.append(new byte[]{1}, 0, 1);
+        journal.append(new byte[]{2}, 0, 1);
+        journal.append(new byte[]{3}, 0, 1);
+        journal.close();
+
+        // Flips the payload of the second record, so its CRC32 no longer matches.
+        final File journalFile = new File(directory, StarJournal.JOURNAL_FILE_NAME);
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+            file.seek(HEADER_SIZE + SINGLE_RECORD_SIZE + 1 + 4);
+            file.writeByte(9);
+        }
+
+        assertArrayEquals(new byte[]{1}, reopen(directory));
+        assertEquals(HEADER_SIZE + SINGLE_RECORD_SIZE, journalFile.length());
+    }
+
+    @Test
+    public void journalIsReplayedOverSnapshot() throws IOException {
+        final File directory = folder.newFolder();
+        final StarJournal journal = new StarJournal(directory);
+        journal.append(new byte[]{1, 2}, 0, 2);
+        journal.compact();
+        journal.append(new byte[]{3}, 0, 1);
+        journal.close();
+
+        assertArrayEquals(new byte[]{1, 2, 3}, reopen(directory));
+    }
+
+    private static byte[] reopen(File directory) throws IOException {
+        final StarJournal journal = new StarJournal(directory);
+        try {
+            return journal.getStars();
+        } finally {
+            journal.close();
+        }
+    }
+
+    private static void setLength(File file, long length) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(length);
+        }
+    }
+}
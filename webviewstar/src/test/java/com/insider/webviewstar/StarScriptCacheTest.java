@@ -0,0 +1,49 @@
+package com.insider.webviewstar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests that the version of the star script is derived from its content,
+ * so a script whose content does not match its version is rejected.
+ */
+public class StarScriptCacheTest {
+
+    @Test
+    public void embeddedScriptMatchesGeneratedVersion() {
+        assertEquals(StarScript.VERSION, StarScriptCache.getContentVersion());
+        assertTrue(StarScriptCache.isCurrentVersion(StarScript.VERSION));
+    }
+
+    @Test
+    public void changedContentChangesVersion() {
+        final String source = "var starScriptVersion=\"1.0.0-000000000000\";\nvar a = 1;";
+        final String changed = "var starScriptVersion=\"1.0.0-000000000000\";\nvar a = 2;";
+
+        final String version = StarScriptCache.deriveVersion("1.0.0-000000000000", source);
+
+        assertTrue(version.startsWith("1.0.0-"));
+        assertEquals("1.0.0-".length() + 12, version.length());
+        assertNotEquals(version, StarScriptCache.deriveVersion("1.0.0-000000000000", changed));
+    }
+
+    @Test
+    public void declaredVersionDoesNotChangeHash() {
+        final String first = StarScriptCache.deriveVersion("1.0.0-aaaaaaaaaaaa",
+                "var starScriptVersion=\"1.0.0-aaaaaaaaaaaa\";\nvar a = 1;");
+        final String second = StarScriptCache.deriveVersion("1.0.0-bbbbbbbbbbbb",
+                "var starScriptVersion=\"1.0.0-bbbbbbbbbbbb\";\nvar a = 1;");
+
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void otherVersionIsRejected() {
+        assertFalse(StarScriptCache.isCurrentVersion(null));
+        assertFalse(StarScriptCache.isCurrentVersion("1.0.0-000000000000"));
+    }
+}
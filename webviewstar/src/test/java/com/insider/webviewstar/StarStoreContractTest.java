@@ -0,0 +1,187 @@
+package com.insider.webviewstar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+/**
+ * The contract that every {@link StarStore} must pass. Each backend
+ * extends this class and provides how its store is opened.
+ */
+public abstract class StarStoreContractTest {
+
+    private static final byte SMALL_RED = 0;
+    private static final byte BIG_YELLOW = 1;
+    private static final byte SMALL_BLUE_DIM = 10;
+    private static final byte BIG_GRAY_DIM = 13;
+
+    private StarStore store;
+
+    /**
+     * Opens the store, which must contain the stars written by the
+     * previously opened stores of the same test.
+     */
+    protected abstract StarStore openStore() throws IOException;
+
+    @Before
+    public void setUp() throws IOException {
+        store = openStore();
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    @Test
+    public void newStoreIsEmpty() {
+        assertEquals(0, store.getCount());
+        assertArrayEquals(new byte[0], store.getStars());
+    }
+
+    @Test
+    public void appendAddsStarsInOrder() throws IOException {
+        store.append(new byte[]{SMALL_RED}, 0, 1);
+        store.append(new byte[]{BIG_YELLOW, SMALL_BLUE_DIM}, 0, 2);
+
+        assertEquals(3, store.getCount());
+        assertArrayEquals(new byte[]{SMALL_RED, BIG_YELLOW, SMALL_BLUE_DIM}, store.getStars());
+    }
+
+    @Test
+    public void appendUsesOffsetAndLength() throws IOException {
+        store.append(new byte[]{SMALL_RED, BIG_YELLOW, SMALL_BLUE_DIM, BIG_GRAY_DIM}, 1, 2);
+
+        assertArrayEquals(new byte[]{BIG_YELLOW, SMALL_BLUE_DIM}, store.getStars());
+    }
+
+    @Test
+    public void appendWithZeroLengthDoesNothing() throws IOException {
+        store.append(new byte[]{SMALL_RED}, 0, 1);
+        store.append(new byte[]{BIG_YELLOW}, 0, 0);
+
+        assertArrayEquals(new byte[]{SMALL_RED}, store.getStars());
+    }
+
+    @Test
+    public void resetRemovesAllStars() throws IOException {
+        store.append(new byte[]{SMALL_RED, BIG_YELLOW}, 0, 2);
+        store.reset();
+
+        assertEquals(0, store.getCount());
+        assertArrayEquals(new byte[0], store.getStars());
+
+        store.append(new byte[]{BIG_GRAY_DIM}, 0, 1);
+        assertArrayEquals(new byte[]{BIG_GRAY_DIM}, store.getStars());
+    }
+
+    @Test
+    public void resetOnEmptyStoreDoesNothing() throws IOException {
+        store.reset();
+
+        assertEquals(0, store.getCount());
+    }
+
+    @Test
+    public void replaceWithMoreStarsKeepsThemAll() throws IOException {
+        store.append(new byte[]{SMALL_RED, BIG_YELLOW}, 0, 2);
+        store.replace(new byte[]{SMALL_RED, BIG_YELLOW, SMALL_BLUE_DIM});
+
+        assertArrayEquals(new byte[]{SMALL_RED, BIG_YELLOW, SMALL_BLUE_DIM}, store.getStars());
+    }
+
+    @Test
+    public void replaceWithDifferentStarsOverwritesThem() throws IOException {
+        store.append(new byte[]{SMALL_RED, BIG_YELLOW, SMALL_BLUE_DIM}, 0, 3);
+        store.replace(new byte[]{BIG_GRAY_DIM, SMALL_RED});
+
+        assertEquals(2, store.getCount());
+        assertArrayEquals(new byte[]{BIG_GRAY_DIM, SMALL_RED}, store.getStars());
+    }
+
+    @Test
+    public void replaceWithEmptyRemovesAllStars() throws IOException {
+        store.append(new byte[]{SMALL_RED, BIG_YELLOW}, 0, 2);
+        store.replace(new byte[0]);
+
+        assertEquals(0, store.getCount());
+    }
+
+    @Test
+    public void getStarsReturnsCopy() throws IOException {
+        store.append(new byte[]{SMALL_RED}, 0, 1);
+        store.getStars()[0] = BIG_GRAY_DIM;
+
+        assertArrayEquals(new byte[]{SMALL_RED}, store.getStars());
+    }
+
+    @Test
+    public void storeGrowsWithManyStars() throws IOException {
+        final byte[] stars = new byte[5000];
+        for (int i = 0; i < stars.length; i++)
+            stars[i] = (byte) (i % 16);
+
+        store.append(stars, 0, 3000);
+        for (int i = 3000; i < stars.length; i += 100)
+            store.append(stars, i, 100);
+
+        assertEquals(stars.length, store.getCount());
+        assertArrayEquals(stars, store.getStars());
+    }
+
+    @Test
+    public void starsSurviveReopening() throws IOException {
+        store.append(new byte[]{SMALL_RED, BIG_YELLOW}, 0, 2);
+        store.append(new byte[]{SMALL_BLUE_DIM}, 0, 1);
+        reopen();
+
+        assertEquals(3, store.getCount());
+        assertArrayEquals(new byte[]{SMALL_RED, BIG_YELLOW, SMALL_BLUE_DIM}, store.getStars());
+    }
+
+    @Test
+    public void resetSurvivesReopening() throws IOException {
+        store.append(new byte[]{SMALL_RED, BIG_YELLOW}, 0, 2);
+        store.reset();
+        reopen();
+
+        assertEquals(0, store.getCount());
+    }
+
+    @Test
+    public void replaceSurvivesReopening() throws IOException {
+        store.append(new byte[]{SMALL_RED, BIG_YELLOW, SMALL_BLUE_DIM}, 0, 3);
+        store.replace(new byte[]{BIG_GRAY_DIM});
+        reopen();
+
+        assertArrayEquals(new byte[]{BIG_GRAY_DIM}, store.getStars());
+    }
+
+    @Test
+    public void maintainKeepsStars() throws IOException {
+        // Enough changes to grow the journal beyond its compaction threshold.
+        final byte[] stars = new byte[32];
+        final byte[] halfStars = new byte[16];
+        for (int i = 0; i < 4000; i++) {
+            stars[0] = halfStars[0] = (byte) (i % 16);
+            store.replace(i % 2 == 0 ? halfStars : stars);
+            store.maintain();
+        }
+        final byte[] expected = store.getStars();
+        reopen();
+
+        assertTrue(store.getCount() > 0);
+        assertArrayEquals(expected, store.getStars());
+    }
+
+    private void reopen() throws IOException {
+        store.close();
+        store = openStore();
+    }
+}
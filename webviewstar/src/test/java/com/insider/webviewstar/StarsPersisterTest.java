@@ -0,0 +1,139 @@
+package com.insider.webviewstar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the writes of {@link StarsPersister} through its flush-and-await hook. The
+ * window is timed on the main thread, which does not run on the JVM, so a change is
+ * only written once it is flushed, or if it is immediate.
+ */
+public class StarsPersisterTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final FakeSharedPreferences preferences = new FakeSharedPreferences();
+
+    private StarsDataManager dataManager;
+    private StarModel model;
+    private StarsPersister persister;
+
+    @Before
+    public void setUp() {
+        dataManager = new StarsDataManager(preferences, folder.getRoot());
+        model = new StarModel(dataManager.getStars());
+        persister = new StarsPersister(dataManager, model);
+    }
+
+    @Test
+    public void changesWithinWindowAreWrittenOnFlush() throws Exception {
+        model.append(new byte[]{1}, 0, 1);
+        persister.onModelChanged(false);
+        model.append(new byte[]{2, 3}, 0, 2);
+        persister.onModelChanged(false);
+
+        assertArrayEquals(new byte[0], dataManager.getStars());
+        assertTrue(persister.flushAndAwait(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertArrayEquals(new byte[]{1, 2, 3}, dataManager.getStars());
+    }
+
+    @Test
+    public void appendedStarsFollowWrittenOnes() throws Exception {
+        model.append(new byte[]{1}, 0, 1);
+        persister.onModelChanged(false);
+        assertTrue(persister.flushAndAwait(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        model.append(new byte[]{4}, 0, 1);
+        persister.onModelChanged(false);
+        assertTrue(persister.flushAndAwait(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertArrayEquals(new byte[]{1, 4}, dataManager.getStars());
+    }
+
+    @Test
+    public void immediateChangeIsWrittenWithoutFlush() throws Exception {
+        model.append(new byte[]{1, 2}, 0, 2);
+        persister.onModelChanged(false);
+        model.reset();
+        persister.onModelChanged(true);
+
+        // Nothing is pending after the immediate write, so this only waits for it.
+        assertTrue(persister.flushAndAwait(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertArrayEquals(new byte[0], dataManager.getStars());
+    }
+
+    @Test
+    public void flushWithoutChangeReturns() throws Exception {
+        assertTrue(persister.flushAndAwait(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertArrayEquals(new byte[0], dataManager.getStars());
+    }
+
+    @Test
+    public void writtenStarsAreReadByNextProcess() throws Exception {
+        model.append(new byte[]{5, 6}, 0, 2);
+        persister.onModelChanged(false);
+        assertTrue(persister.flushAndAwait(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        final StarsDataManager reopened = new StarsDataManager(preferences, folder.getRoot());
+        assertArrayEquals(new byte[]{5, 6}, reopened.getStars());
+    }
+
+    @Test
+    public void failedWriteIsRetriedOnNextFlush() throws Exception {
+        final FailingDataManager failingDataManager =
+                new FailingDataManager(preferences, folder.newFolder());
+        final StarsPersister failingPersister = new StarsPersister(failingDataManager, model);
+        model.append(new byte[]{1, 2}, 0, 2);
+        failingPersister.onModelChanged(false);
+
+        failingDataManager.isFailing = true;
+        assertTrue(failingPersister.flushAndAwait(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, failingDataManager.writeCount);
+        assertArrayEquals(new byte[0], failingDataManager.getStars());
+
+        // The change stays pending, so the flush writes it without another change.
+        failingDataManager.isFailing = false;
+        assertTrue(failingPersister.flushAndAwait(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(2, failingDataManager.writeCount);
+        assertArrayEquals(new byte[]{1, 2}, failingDataManager.getStars());
+    }
+
+    /**
+     * The data manager whose writes fail while {@link #isFailing} is set.
+     */
+    private static class FailingDataManager extends StarsDataManager {
+
+        volatile boolean isFailing = false;
+        volatile int writeCount = 0;
+
+        FailingDataManager(@NonNull FakeSharedPreferences preferences, @NonNull File directory) {
+            super(preferences, directory);
+        }
+
+        @Override
+        boolean saveStars(@NonNull byte[] stars) {
+            writeCount++;
+            return !isFailing && super.saveStars(stars);
+        }
+
+        @Override
+        boolean appendStars(@NonNull byte[] stars) {
+            writeCount++;
+            return !isFailing && super.appendStars(stars);
+        }
+    }
+}
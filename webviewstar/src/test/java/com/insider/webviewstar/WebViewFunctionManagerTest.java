@@ -0,0 +1,64 @@
+package com.insider.webviewstar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContextWrapper;
+import android.webkit.WebView;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the calls that {@link WebViewFunctionManager} holds while the page is released.
+ * The main thread does not run on the JVM, so the script is never initialized, and
+ * the WebView is never attached.
+ */
+public class WebViewFunctionManagerTest {
+
+    private final List<String> results = new ArrayList<>();
+
+    private WebViewFunctionManager manager;
+
+    @Before
+    public void setUp() {
+        final WebViewStarConfig config = new WebViewStarConfig.Builder()
+                .setHeadlessFallbackEnabled(false)
+                .build();
+        final ContextWrapper context = new ContextWrapper(null);
+        manager = new WebViewFunctionManager(new WebView(context), config,
+                new HeadlessStarEngine(context, config.getMaxStarCount()),
+                new StarStateHub(new StarModel(new byte[0])));
+    }
+
+    @Test
+    public void pendingCallsAreKeptWhenPageIsReleased() {
+        manager.call(PendingCommandBuffer.ADD_SMALL_STAR, null, results::add);
+        manager.call(PendingCommandBuffer.ADD_BIG_STAR, null, results::add);
+
+        manager.onPageReleased();
+
+        // The calls wait for the rebuilt page, since the fallback is disabled.
+        assertTrue(results.isEmpty());
+        manager.onDestroy();
+        assertEquals(2, results.size());
+        for (String result : results)
+            assertEquals(JavascriptCommand.RESULT_DESTROYED, result);
+    }
+
+    @Test
+    public void pendingCallsSurviveRepeatedReleases() {
+        manager.call(PendingCommandBuffer.ADD_SMALL_STAR, null, results::add);
+
+        manager.onPageReleased();
+        manager.call(PendingCommandBuffer.ADD_BIG_STAR, null, results::add);
+        manager.onPageReleased();
+
+        assertTrue(results.isEmpty());
+        manager.onDestroy();
+        assertEquals(2, results.size());
+    }
+}